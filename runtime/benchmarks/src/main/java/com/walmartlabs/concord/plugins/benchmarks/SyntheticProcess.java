@@ -0,0 +1,177 @@
+package com.walmartlabs.concord.plugins.benchmarks;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import com.walmartlabs.concord.plugins.opentelemetry.NoopCommand;
+import com.walmartlabs.concord.runtime.v2.model.*;
+import com.walmartlabs.concord.runtime.v2.runner.vm.FlowCallCommand;
+import com.walmartlabs.concord.runtime.v2.runner.vm.LoopWrapper;
+import com.walmartlabs.concord.runtime.v2.runner.vm.PopFrameCommand;
+import com.walmartlabs.concord.runtime.v2.runner.vm.TaskCallCommand;
+import com.walmartlabs.concord.svm.*;
+import com.walmartlabs.concord.svm.Runtime;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A synthetic process that drives an {@link ExecutionListener} the same way
+ * the VM does, without evaluating the commands.
+ * <p>
+ * The process consists of a chain of flows {@code flow0 .. flowN}, each flow
+ * calls the next one and then runs a task. Every call of {@link #loopIteration(ExecutionListener)}
+ * and {@link #nestedFlowCalls(ExecutionListener)} uses a new loop index,
+ * so each executed step gets a distinct step ID, as in a real {@code loop}.
+ * <p>
+ * Instances are not thread-safe, use one instance per benchmark thread to
+ * simulate branches of a {@code parallel} block.
+ */
+public class SyntheticProcess {
+
+    public static final String FILE_NAME = "concord.yaml";
+
+    private static final PopFrameCommand POP_FRAME = new PopFrameCommand();
+
+    private final Runtime runtime;
+    private final State state;
+    private final ThreadId threadId;
+
+    private final TaskCallCommand task;
+    private final List<FlowCallCommand> flowCalls;
+    private final List<TaskCallCommand> flowTasks;
+
+    private int nextIndex;
+
+    public SyntheticProcess(int depth) {
+        this.state = new InMemoryState(new NoopCommand());
+        this.threadId = state.getRootThreadId();
+
+        this.task = new TaskCallCommand(UUID.randomUUID(), taskCall(2));
+
+        Map<String, Flow> flows = new LinkedHashMap<>();
+        flows.put("default", new Flow(location(1), List.of(task.getStep())));
+
+        this.flowCalls = new ArrayList<>(depth);
+        this.flowTasks = new ArrayList<>(depth);
+        for (int i = 0; i < depth; i++) {
+            int line = 10 + i * 4;
+            FlowCall call = new FlowCall(location(line + 1), "flow" + (i + 1), FlowCallOptions.builder().build());
+            TaskCall taskCall = taskCall(line + 2);
+            flows.put("flow" + i, new Flow(location(line), List.of(call, taskCall)));
+
+            flowCalls.add(new FlowCallCommand(UUID.randomUUID(), call));
+            flowTasks.add(new TaskCallCommand(UUID.randomUUID(), taskCall));
+        }
+
+        ProcessDefinition processDefinition = proxy(ProcessDefinition.class, Map.of("flows", flows));
+        this.runtime = proxy(Runtime.class, Map.of("getService", processDefinition));
+    }
+
+    public Runtime runtime() {
+        return runtime;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /**
+     * Runs one iteration of a loop over a single task.
+     *
+     * @return the number of executed commands
+     */
+    public int loopIteration(ExecutionListener listener) {
+        nextIteration();
+        execute(listener, task);
+        return 1;
+    }
+
+    /**
+     * Calls the chain of flows, runs a task in each of them and returns
+     * back to the top level.
+     *
+     * @return the number of executed commands
+     */
+    public int nestedFlowCalls(ExecutionListener listener) {
+        nextIteration();
+
+        for (int i = 0; i < flowCalls.size(); i++) {
+            FlowCallCommand cmd = flowCalls.get(i);
+            listener.beforeCommand(runtime, null, state, threadId, cmd);
+            state.pushFrame(threadId, Frame.builder().nonRoot().build());
+            listener.afterCommand(runtime, null, state, threadId, cmd);
+
+            execute(listener, flowTasks.get(i));
+        }
+
+        for (int i = 0; i < flowCalls.size(); i++) {
+            listener.beforeCommand(runtime, null, state, threadId, POP_FRAME);
+            state.popFrame(threadId);
+            listener.afterCommand(runtime, null, state, threadId, POP_FRAME);
+        }
+
+        return flowCalls.size() * 3;
+    }
+
+    private void nextIteration() {
+        state.peekFrame(threadId).setLocal(LoopWrapper.CURRENT_INDEX, nextIndex++);
+    }
+
+    private void execute(ExecutionListener listener, Command cmd) {
+        listener.beforeCommand(runtime, null, state, threadId, cmd);
+        listener.afterCommand(runtime, null, state, threadId, cmd);
+    }
+
+    private static TaskCall taskCall(int line) {
+        return new TaskCall(location(line), "log", TaskCallOptions.builder().build());
+    }
+
+    private static Location location(int line) {
+        return Location.builder()
+                .fileName(FILE_NAME)
+                .lineNum(line)
+                .column(1)
+                .build();
+    }
+
+    /**
+     * Creates a stub of an interface that returns the specified values by method name
+     * and {@code null} for everything else.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Map<String, Object> values) {
+        return (T) Proxy.newProxyInstance(SyntheticProcess.class.getClassLoader(), new Class<?>[]{type},
+                (p, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return switch (method.getName()) {
+                            case "equals" -> p == args[0];
+                            case "hashCode" -> System.identityHashCode(p);
+                            default -> type.getSimpleName();
+                        };
+                    }
+                    return values.get(method.getName());
+                });
+    }
+}
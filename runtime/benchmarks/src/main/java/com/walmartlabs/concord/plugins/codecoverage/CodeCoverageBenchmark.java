@@ -0,0 +1,78 @@
+package com.walmartlabs.concord.plugins.codecoverage;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import com.walmartlabs.concord.plugins.benchmarks.SyntheticProcess;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of {@link CodeCoverage} per command in a loop,
+ * in branches of a parallel block and in nested flow calls.
+ * Run with {@code -prof gc} to see the number of bytes allocated per command.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodeCoverageBenchmark {
+
+    private static final int FLOW_CALL_DEPTH = 32;
+
+    @Param({"false", "true"})
+    public boolean profiling;
+
+    private CodeCoverage coverage;
+
+    @State(Scope.Thread)
+    public static class Process {
+
+        final SyntheticProcess process = new SyntheticProcess(FLOW_CALL_DEPTH);
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        CodeCoverageParams params = new CodeCoverageParams(Map.of("profiling", profiling));
+        coverage = new CodeCoverage(new StepsRecorder(null), null, Path.of("."), params);
+    }
+
+    @Benchmark
+    public int loop(Process p) {
+        return p.process.loopIteration(coverage);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int parallel(Process p) {
+        return p.process.loopIteration(coverage);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FLOW_CALL_DEPTH * 3)
+    public int nestedFlowCalls(Process p) {
+        return p.process.nestedFlowCalls(coverage);
+    }
+}
@@ -0,0 +1,106 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of recording a step (start + end) in {@link FlowSteps}
+ * by multiple threads. The finished steps are removed as the benchmark goes,
+ * so the number of steps in memory doesn't grow during an iteration.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlowStepsBenchmark {
+
+    /**
+     * Each thread removes the finished steps after this number of steps,
+     * the same way the steps are spilled with {@code maxInMemorySteps}.
+     */
+    private static final int REMOVE_BATCH_SIZE = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Steps {
+
+        FlowSteps flowSteps;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            flowSteps = new FlowSteps(UUID.randomUUID(), "default", System.currentTimeMillis(), List.of());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Ids {
+
+        private final UUID correlationId = UUID.randomUUID();
+        private int next;
+
+        StepId next() {
+            return StepId.from(correlationId, next++);
+        }
+
+        boolean isBatchEnd() {
+            return next % REMOVE_BATCH_SIZE == 0;
+        }
+    }
+
+    @Benchmark
+    public boolean startEnd(Steps steps, Ids ids) {
+        StepId id = ids.next();
+        steps.flowSteps.onStepStart(id, "Task: log", null, "concord.yaml", 10, "default");
+        boolean result = steps.flowSteps.onStepEnd(id, true);
+
+        if (ids.isBatchEnd()) {
+            steps.flowSteps.removeFinished();
+        }
+
+        return result;
+    }
+
+    @Benchmark
+    public StepInfo startComplete(Steps steps, Ids ids) {
+        StepId id = ids.next();
+        steps.flowSteps.onStepStart(id, "Task: log", null, "concord.yaml", 10, "default");
+        return steps.flowSteps.completeStep(id, true);
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int threads : new int[]{1, 2, 4, 8, 16, 32, 64}) {
+            Options opts = new OptionsBuilder()
+                    .include(FlowStepsBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+
+            new Runner(opts).run();
+        }
+    }
+}
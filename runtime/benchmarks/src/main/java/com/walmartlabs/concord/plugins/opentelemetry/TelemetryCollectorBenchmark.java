@@ -0,0 +1,65 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.walmartlabs.concord.svm.Command;
+import com.walmartlabs.concord.svm.ExecutionListener;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of {@link TelemetryCollector} for commands that are
+ * not traced. Run with {@code -prof gc} to see the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TelemetryCollectorBenchmark {
+
+    @Param({"false", "true"})
+    public boolean enabled;
+
+    private TelemetryCollector collector;
+
+    private final Command cmd = new NoopCommand();
+
+    @Setup
+    public void setup() {
+        TelemetryParams params = new TelemetryParams(Map.of(
+                "enabled", enabled,
+                "endpoint", "http://localhost:4318/v1/traces"));
+
+        collector = new TelemetryCollector(new ObjectMapper(), null, UUID.randomUUID(), null, params);
+    }
+
+    @Benchmark
+    public ExecutionListener.Result untracedCommand() {
+        collector.beforeCommand(null, null, null, null, cmd);
+        return collector.afterCommand(null, null, null, null, cmd);
+    }
+}
@@ -0,0 +1,92 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.walmartlabs.concord.plugins.benchmarks.SyntheticProcess;
+import com.walmartlabs.concord.runtime.v2.sdk.ProcessConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of {@link TelemetryCollector} per traced command in
+ * a loop, in branches of a parallel block and in nested flow calls.
+ * Run with {@code -prof gc} to see the number of bytes allocated per command.
+ * <p>
+ * The collector keeps the steps of the whole process in memory, so it is
+ * recreated for each iteration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TelemetryCollectorStepsBenchmark {
+
+    private static final int FLOW_CALL_DEPTH = 32;
+
+    @Param({"0", "100"})
+    public int loopCollapseThreshold;
+
+    private TelemetryCollector collector;
+
+    @State(Scope.Thread)
+    public static class Process {
+
+        final SyntheticProcess process = new SyntheticProcess(FLOW_CALL_DEPTH);
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        TelemetryParams params = new TelemetryParams(Map.of(
+                "enabled", true,
+                "endpoint", "http://localhost:4318/v1/traces",
+                "loops", Map.of("collapseThreshold", loopCollapseThreshold)));
+
+        ProcessConfiguration processConfiguration = ProcessConfiguration.builder()
+                .entryPoint("default")
+                .build();
+
+        collector = new TelemetryCollector(new ObjectMapper(), null, UUID.randomUUID(), processConfiguration, params);
+        collector.beforeProcessStart(null, null);
+    }
+
+    @Benchmark
+    public int loop(Process p) {
+        return p.process.loopIteration(collector);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int parallel(Process p) {
+        return p.process.loopIteration(collector);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FLOW_CALL_DEPTH * 3)
+    public int nestedFlowCalls(Process p) {
+        return p.process.nestedFlowCalls(collector);
+    }
+}
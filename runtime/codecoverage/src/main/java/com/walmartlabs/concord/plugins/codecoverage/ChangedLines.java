@@ -0,0 +1,196 @@
+package com.walmartlabs.concord.plugins.codecoverage;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Lines of flow files that were added or modified since a baseline.
+ * <p>
+ * The baseline is a directory with the {@code flows.zip} and (optionally)
+ * {@code flows.sha256} attachments of a previous process. Files with the same
+ * SHA-256 hash as in the baseline manifest are not compared. Other files are
+ * compared by 64-bit hashes of their lines: a line is changed if the baseline
+ * version of the file doesn't have a line with the same content (each baseline
+ * line is matched once). Moved lines are not reported as changed, all lines
+ * of new files are.
+ */
+public class ChangedLines {
+
+    private final Map<String, BitSet> files;
+
+    private ChangedLines(Map<String, BitSet> files) {
+        this.files = files;
+    }
+
+    /**
+     * @param baselineDir directory with the baseline {@code flows.zip} and {@code flows.sha256}
+     * @param workDir     directory with the current flow files
+     * @param fileNames   current flow files, relative to {@code workDir}
+     */
+    public static ChangedLines compute(Path baselineDir, Path workDir, Collection<String> fileNames) throws IOException {
+        Path flowsZip = baselineDir.resolve(FlowsArchive.FLOWS_FILENAME);
+        if (!Files.isRegularFile(flowsZip)) {
+            throw new IOException("Baseline flows not found: " + flowsZip);
+        }
+
+        Map<String, String> manifest = Map.of();
+        Path manifestFile = baselineDir.resolve(FlowsArchive.MANIFEST_FILENAME);
+        if (Files.isRegularFile(manifestFile)) {
+            try (InputStream in = Files.newInputStream(manifestFile)) {
+                manifest = FlowsArchive.parseManifest(in);
+            }
+        }
+
+        Set<String> candidates = new HashSet<>();
+        for (String fileName : fileNames) {
+            Path file = workDir.resolve(fileName);
+            if (Files.notExists(file)) {
+                continue;
+            }
+
+            String baselineHash = manifest.get(fileName);
+            if (baselineHash != null && baselineHash.equals(FlowsArchive.sha256(file))) {
+                continue;
+            }
+
+            candidates.add(fileName);
+        }
+
+        Map<String, Map<Long, Integer>> baseline = readBaseline(flowsZip, candidates);
+
+        Map<String, BitSet> result = new HashMap<>();
+        for (String fileName : candidates) {
+            BitSet changed = diff(baseline.get(fileName), workDir.resolve(fileName));
+            if (!changed.isEmpty()) {
+                result.put(fileName, changed);
+            }
+        }
+
+        return new ChangedLines(result);
+    }
+
+    public boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    public Set<String> fileNames() {
+        return Collections.unmodifiableSet(files.keySet());
+    }
+
+    public boolean isChanged(String fileName) {
+        return files.containsKey(fileName);
+    }
+
+    /**
+     * @param line 1-based line number
+     */
+    public boolean isChanged(String fileName, int line) {
+        BitSet lines = files.get(fileName);
+        return lines != null && line > 0 && lines.get(line);
+    }
+
+    /**
+     * @return the number of changed lines in all files
+     */
+    public int size() {
+        return files.values().stream().mapToInt(BitSet::cardinality).sum();
+    }
+
+    /**
+     * @return file name -> line hash -> number of lines with the hash
+     */
+    private static Map<String, Map<Long, Integer>> readBaseline(Path flowsZip, Set<String> fileNames) throws IOException {
+        Map<String, Map<Long, Integer>> result = new HashMap<>();
+        if (fileNames.isEmpty()) {
+            return result;
+        }
+
+        try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(flowsZip))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.isDirectory() || !fileNames.contains(entry.getName())) {
+                    continue;
+                }
+
+                Map<Long, Integer> hashes = new HashMap<>();
+                // the reader is not closed, it would close the archive
+                BufferedReader reader = new BufferedReader(new InputStreamReader(zip, StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    hashes.merge(hash(line), 1, Integer::sum);
+                }
+                result.put(entry.getName(), hashes);
+            }
+        }
+        return result;
+    }
+
+    private static BitSet diff(Map<Long, Integer> baseline, Path file) throws IOException {
+        BitSet changed = new BitSet();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            int lineNum = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNum++;
+
+                if (baseline == null) {
+                    changed.set(lineNum);
+                    continue;
+                }
+
+                long h = hash(line);
+                Integer count = baseline.get(h);
+                if (count == null) {
+                    changed.set(lineNum);
+                } else if (count == 1) {
+                    baseline.remove(h);
+                } else {
+                    baseline.put(h, count - 1);
+                }
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the line without trailing whitespace.
+     */
+    static long hash(String line) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0, n = line.stripTrailing().length(); i < n; i++) {
+            h ^= line.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
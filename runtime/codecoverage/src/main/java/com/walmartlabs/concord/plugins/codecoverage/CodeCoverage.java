@@ -20,28 +20,30 @@ package com.walmartlabs.concord.plugins.codecoverage;
  * =====
  */
 
-import com.walmartlabs.concord.common.IOUtils;
 import com.walmartlabs.concord.runtime.v2.ProcessDefinitionUtils;
 import com.walmartlabs.concord.runtime.v2.model.FlowCall;
 import com.walmartlabs.concord.runtime.v2.model.ProcessDefinition;
 import com.walmartlabs.concord.runtime.v2.model.Step;
+import com.walmartlabs.concord.runtime.v2.runner.DefaultTaskVariablesService;
 import com.walmartlabs.concord.runtime.v2.runner.PersistenceService;
 import com.walmartlabs.concord.runtime.v2.runner.vm.ElementEventProducer;
 import com.walmartlabs.concord.runtime.v2.runner.vm.FlowCallCommand;
+import com.walmartlabs.concord.runtime.v2.runner.vm.PopFrameCommand;
 import com.walmartlabs.concord.runtime.v2.runner.vm.TaskCallCommand;
 import com.walmartlabs.concord.runtime.v2.sdk.WorkingDirectory;
 import com.walmartlabs.concord.svm.*;
 import com.walmartlabs.concord.svm.Runtime;
-import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class CodeCoverage implements ExecutionListener {
@@ -49,17 +51,38 @@ public class CodeCoverage implements ExecutionListener {
     public static final Logger log = LoggerFactory.getLogger(CodeCoverage.class);
 
     private static final String COVERAGE_INFO_FILENAME = "coverage.info";
-    private static final String FLOWS_FILENAME = "flows.zip";
+    private static final String PROFILE_FILENAME = "profile.collapsed";
+    private static final String HOT_SPOTS_FILENAME = "profile.txt";
+    private static final String DIFF_INFO_FILENAME = "coverage-diff.info";
+    private static final String PROFILER_STATE_FILENAME = "code-coverage-profile.bin";
 
     private final StepsRecorder steps;
     private final PersistenceService persistenceService;
     private final Path workDir;
+    private final FlowsArchive flows;
+    private final Profiler profiler;
+    private final String baseline;
+
+    /**
+     * Counter slots of the steps that don't depend on the runtime state,
+     * i.e. everything except flow calls.
+     */
+    private final Map<Step, Integer> slots = new ConcurrentHashMap<>();
 
     @Inject
-    public CodeCoverage(StepsRecorder steps, PersistenceService persistenceService, WorkingDirectory workingDirectory) {
+    public CodeCoverage(StepsRecorder steps, PersistenceService persistenceService, WorkingDirectory workingDirectory,
+                        DefaultTaskVariablesService defaultTaskVariablesService) {
+        this(steps, persistenceService, workingDirectory.getValue(),
+                new CodeCoverageParams(defaultTaskVariablesService.get("codecoverage")));
+    }
+
+    CodeCoverage(StepsRecorder steps, PersistenceService persistenceService, Path workDir, CodeCoverageParams params) {
         this.steps = steps;
         this.persistenceService = persistenceService;
-        this.workDir = workingDirectory.getValue();
+        this.workDir = workDir;
+        this.flows = new FlowsArchive(persistenceService, workDir);
+        this.profiler = params.profiling() ? new Profiler() : null;
+        this.baseline = params.baseline();
     }
 
     @Override
@@ -67,17 +90,37 @@ public class CodeCoverage implements ExecutionListener {
         saveFlows(runtime.getService(ProcessDefinition.class));
     }
 
+    @Override
+    public void beforeProcessResume(Runtime runtime, State state) {
+        steps.load();
+
+        if (profiler != null) {
+            persistenceService.loadPersistedFile(PROFILER_STATE_FILENAME, in -> {
+                profiler.read(in);
+                return null;
+            });
+        }
+    }
+
     @Override
     public Result beforeCommand(Runtime runtime, VM vm, State state, ThreadId threadId, Command cmd) {
+        if (profiler != null && cmd instanceof PopFrameCommand) {
+            profiler.frameExiting(threadId, state.peekFrame(threadId).id(), System.nanoTime());
+            return Result.CONTINUE;
+        }
+
         // we need the name of the flow, so we can handle the call step only in `afterCommand`
         if (cmd instanceof FlowCallCommand) {
             return Result.CONTINUE;
         }
 
-        if (cmd instanceof ElementEventProducer eep) {
-            processStep(eep.getStep(), runtime, state, threadId);
-        } else if (cmd instanceof TaskCallCommand tcc) {
-            processStep(tcc.getStep(), runtime, state, threadId);
+        var step = stepOf(cmd);
+        if (step != null) {
+            processStep(step, runtime, state, threadId);
+
+            if (profiler != null) {
+                profiler.stepStarted(threadId, System.nanoTime());
+            }
         }
 
         return Result.CONTINUE;
@@ -87,24 +130,79 @@ public class CodeCoverage implements ExecutionListener {
     public Result afterCommand(Runtime runtime, VM vm, State state, ThreadId threadId, Command cmd) {
         if (cmd instanceof FlowCallCommand fcc) {
             processStep(fcc.getStep(), runtime, state, threadId);
+
+            if (profiler != null) {
+                onFlowEntered(fcc.getStep(), runtime, state, threadId);
+            }
+        } else if (profiler != null) {
+            onStepEnded(cmd, runtime, threadId);
         }
         return Result.CONTINUE;
     }
 
-    private void processStep(Step step, Runtime runtime, State state, ThreadId threadId) {
+    @Override
+    public Result onCommandError(Runtime runtime, VM vm, State state, ThreadId threadId, Command cmd, Exception e) {
+        if (profiler != null && !(cmd instanceof FlowCallCommand)) {
+            onStepEnded(cmd, runtime, threadId);
+        }
+        return Result.CONTINUE;
+    }
+
+    private void onStepEnded(Command cmd, Runtime runtime, ThreadId threadId) {
+        var step = stepOf(cmd);
+        if (step == null || !hasLocation(step)) {
+            return;
+        }
+
+        var loc = step.getLocation();
+        var pd = runtime.getService(ProcessDefinition.class);
+        profiler.stepEnded(threadId, loc.fileName(), loc.lineNum(),
+                ProcessDefinitionUtils.getCurrentFlowName(pd, step), System.nanoTime());
+    }
+
+    private void onFlowEntered(Step step, Runtime runtime, State state, ThreadId threadId) {
+        if (!hasLocation(step)) {
+            return;
+        }
+
+        var loc = step.getLocation();
+        var pd = runtime.getService(ProcessDefinition.class);
+        profiler.flowEntered(threadId, state.peekFrame(threadId).id(), FlowCallCommand.getFlowName(state, threadId),
+                ProcessDefinitionUtils.getCurrentFlowName(pd, step), loc.fileName(), loc.lineNum(), System.nanoTime());
+    }
+
+    private static Step stepOf(Command cmd) {
+        if (cmd instanceof ElementEventProducer eep) {
+            return eep.getStep();
+        } else if (cmd instanceof TaskCallCommand tcc) {
+            return tcc.getStep();
+        }
+        return null;
+    }
+
+    private static boolean hasLocation(Step step) {
         var loc = step.getLocation();
-        if (loc == null || loc.lineNum() < 0 || loc.fileName() == null) {
+        return loc != null && loc.lineNum() >= 0 && loc.fileName() != null;
+    }
+
+    private void processStep(Step step, Runtime runtime, State state, ThreadId threadId) {
+        if (!hasLocation(step)) {
             return;
         }
 
+        var loc = step.getLocation();
         var pd = runtime.getService(ProcessDefinition.class);
 
-        steps.record(StepInfo.builder()
-                .fileName(Objects.requireNonNull(loc.fileName()))
-                .line(loc.lineNum())
-                .processDefinitionId(ProcessDefinitionUtils.getCurrentFlowName(pd, step))
-                .flowCallName(flowCallName(step, state, threadId))
-                .build());
+        if (step instanceof FlowCall) {
+            steps.record(loc.fileName(), loc.lineNum(),
+                    ProcessDefinitionUtils.getCurrentFlowName(pd, step),
+                    FlowCallCommand.getFlowName(state, threadId));
+            return;
+        }
+
+        int slot = slots.computeIfAbsent(step,
+                s -> steps.slot(loc.fileName(), loc.lineNum(), ProcessDefinitionUtils.getCurrentFlowName(pd, s), null));
+        steps.record(slot);
     }
 
     @Override
@@ -115,6 +213,13 @@ public class CodeCoverage implements ExecutionListener {
     @Override
     public void afterProcessEnds(Runtime runtime, State state, Frame lastFrame) {
         if (isSuspended(state)) {
+            awaitFlows();
+            steps.flush();
+
+            if (profiler != null) {
+                persistenceService.persistFile(PROFILER_STATE_FILENAME, profiler::write,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            }
             return;
         }
 
@@ -124,9 +229,13 @@ public class CodeCoverage implements ExecutionListener {
     private void generateReport(Runtime runtime) {
         log.info("Generating code coverage info...");
 
+        awaitFlows();
+
+        var processDefinition = runtime.getService(ProcessDefinition.class);
+        LcovReportProducer reportProducer;
         try {
-            var reportProducer = new LcovReportProducer(runtime.getService(ProcessDefinition.class));
-            reportProducer.onSteps(steps.list());
+            reportProducer = new LcovReportProducer(processDefinition);
+            steps.counters().forEach(reportProducer::onStep);
 
             steps.cleanup();
 
@@ -136,6 +245,49 @@ public class CodeCoverage implements ExecutionListener {
         }
 
         log.info("Coverage info saved as attachment with name '{}'", COVERAGE_INFO_FILENAME);
+
+        if (baseline != null) {
+            generateDiffReport(processDefinition, reportProducer);
+        }
+
+        if (profiler != null && !profiler.isEmpty()) {
+            persistenceService.persistFile(PROFILE_FILENAME, profiler::writeCollapsed, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            persistenceService.persistFile(HOT_SPOTS_FILENAME, profiler::writeHotSpots, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+
+            log.info("Profile saved as attachments with names '{}' and '{}'", PROFILE_FILENAME, HOT_SPOTS_FILENAME);
+        }
+
+        if (profiler != null) {
+            try {
+                persistenceService.deletePersistedFile(PROFILER_STATE_FILENAME);
+            } catch (IOException e) {
+                log.warn("Can't cleanup profiler state: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void generateDiffReport(ProcessDefinition processDefinition, LcovReportProducer reportProducer) {
+        ChangedLines changes;
+        try {
+            changes = ChangedLines.compute(workDir.resolve(baseline), workDir, flowFileNames(processDefinition));
+        } catch (IOException e) {
+            log.warn("CodeCoverage: can't compare flows with the baseline '{}': {}", baseline, e.getMessage());
+            return;
+        }
+
+        persistenceService.persistFile(DIFF_INFO_FILENAME, out -> reportProducer.produce(out, changes),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        log.info("Coverage of {} changed line(s) in {} file(s) saved as attachment with name '{}'",
+                changes.size(), changes.fileNames().size(), DIFF_INFO_FILENAME);
+    }
+
+    private void awaitFlows() {
+        try {
+            flows.await();
+        } catch (RuntimeException e) {
+            log.warn("CodeCoverage: {}, the coverage report will be generated without flows", e.getMessage(), e);
+        }
     }
 
     private static boolean isSuspended(State state) {
@@ -143,38 +295,14 @@ public class CodeCoverage implements ExecutionListener {
                 .anyMatch(e -> e.getValue() == ThreadStatus.SUSPENDED);
     }
 
-    private static String flowCallName(Step step, State state, ThreadId threadId) {
-        if (step instanceof FlowCall) {
-            return FlowCallCommand.getFlowName(state, threadId);
-        }
-        return null;
+    private void saveFlows(ProcessDefinition processDefinition) {
+        flows.start(flowFileNames(processDefinition));
     }
 
-    private void saveFlows(ProcessDefinition processDefinition) {
-        var fileNames = processDefinition.flows().values().stream()
+    private static Set<String> flowFileNames(ProcessDefinition processDefinition) {
+        return processDefinition.flows().values().stream()
                 .map(v -> v.location().fileName())
                 .filter(Objects::nonNull)
                 .collect(Collectors.toSet());
-
-        persistenceService.persistFile(FLOWS_FILENAME, out -> {
-            try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(out)) {
-
-                for (var fileName : fileNames) {
-                    var file = workDir.resolve(fileName);
-                    if (Files.notExists(file)) {
-                        log.warn("CodeCoverage: can't save flow '{}' -> file not exists. This is most likely a bug", fileName);
-                        continue;
-                    }
-
-                    try {
-                        IOUtils.zipFile(zip, file, fileName);
-                    } catch (IOException ex) {
-                        log.error("CodeCoverage: failed to add file '{}'. Error: {}", fileName, ex.getMessage());
-                        throw ex;
-                    }
-                }
-            }
-        });
-        log.debug("CodeCoverage: flows saved as '{}' process attachment", FLOWS_FILENAME);
     }
 }
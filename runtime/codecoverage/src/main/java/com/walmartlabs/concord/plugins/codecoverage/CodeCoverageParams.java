@@ -0,0 +1,53 @@
+package com.walmartlabs.concord.plugins.codecoverage;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import com.walmartlabs.concord.sdk.MapUtils;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+
+public class CodeCoverageParams {
+
+    private final Map<String, Object> params;
+
+    public CodeCoverageParams(Map<String, Object> params) {
+        this.params = params != null ? params : Map.of();
+    }
+
+    /**
+     * If {@code true}, the durations of steps and flow calls are recorded
+     * in addition to the execution counts.
+     */
+    public boolean profiling() {
+        return MapUtils.getBoolean(params, "profiling", false);
+    }
+
+    /**
+     * Directory with the {@code flows.zip} and {@code flows.sha256} attachments
+     * of a previous process. If specified, an additional report is produced
+     * with the lines changed since then.
+     */
+    @Nullable
+    public String baseline() {
+        return MapUtils.getString(params, "baseline");
+    }
+}
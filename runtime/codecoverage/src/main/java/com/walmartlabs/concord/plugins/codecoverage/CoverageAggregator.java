@@ -0,0 +1,262 @@
+package com.walmartlabs.concord.plugins.codecoverage;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Merges coverage reports of many processes into one LCOV report.
+ * <p>
+ * Each input is a directory with the process' {@code coverage.info} and
+ * (optionally) {@code flows.zip} attachments. Flow files are identified by
+ * their path and content hash: counters of identical sources are summed,
+ * different versions of the same file are reported separately
+ * (as {@code <path>@<hash>}). Each distinct source is stored once in
+ * the {@code flows} subdirectory of the output directory.
+ * <p>
+ * Inputs are parsed and merged in parallel with fork/join. Only the merged
+ * counters are kept in memory, so the memory usage depends on the number of
+ * distinct flow sources, not on the number of inputs.
+ */
+public class CoverageAggregator {
+
+    public static final String COVERAGE_INFO_FILENAME = "coverage.info";
+    public static final String FLOWS_FILENAME = "flows.zip";
+    public static final String FLOWS_DIR = "flows";
+
+    private static final String OBJECTS_DIR = ".objects";
+    private static final String KEY_SEPARATOR = "\0";
+    private static final String VERSION_SEPARATOR = "@";
+    private static final int HASH_PREFIX_LENGTH = 12;
+    private static final int LEAF_SIZE = 8;
+
+    private final Path outputDir;
+    private final int parallelism;
+    private final Set<String> storedSources = ConcurrentHashMap.newKeySet();
+
+    public CoverageAggregator(Path outputDir, int parallelism) {
+        this.outputDir = outputDir;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Finds the inputs: the directory itself if it contains {@code coverage.info},
+     * otherwise all its subdirectories with {@code coverage.info}.
+     */
+    public static List<Path> findInputs(Path dir) throws IOException {
+        if (Files.isRegularFile(dir.resolve(COVERAGE_INFO_FILENAME))) {
+            return List.of(dir);
+        }
+
+        try (var children = Files.list(dir)) {
+            return children.filter(p -> Files.isRegularFile(p.resolve(COVERAGE_INFO_FILENAME)))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Merges the inputs and writes {@code coverage.info} and the flow sources
+     * into the output directory.
+     */
+    public Result aggregate(List<Path> inputs) throws IOException {
+        Files.createDirectories(outputDir.resolve(OBJECTS_DIR));
+
+        LcovData merged;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            merged = pool.invoke(new MergeTask(inputs, 0, inputs.size()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+
+        Map<String, String> sourcePaths = sourcePaths(merged.sourceKeys());
+        for (Map.Entry<String, String> e : sourcePaths.entrySet()) {
+            placeSource(e.getKey(), e.getValue());
+        }
+
+        try (Writer out = Files.newBufferedWriter(outputDir.resolve(COVERAGE_INFO_FILENAME), StandardCharsets.UTF_8)) {
+            merged.write(out, sourcePaths::get);
+        }
+
+        deleteObjects();
+
+        return new Result(inputs.size(), sourcePaths.size());
+    }
+
+    /**
+     * Parses a single input.
+     */
+    LcovData parse(Path input) throws IOException {
+        Map<String, String> hashes = storeSources(input.resolve(FLOWS_FILENAME));
+        try (BufferedReader reader = Files.newBufferedReader(input.resolve(COVERAGE_INFO_FILENAME), StandardCharsets.UTF_8)) {
+            return LcovData.parse(reader, path -> {
+                String hash = hashes.get(path);
+                return hash != null ? path + KEY_SEPARATOR + hash : path;
+            });
+        }
+    }
+
+    /**
+     * Hashes the flow files and stores the ones not seen before.
+     *
+     * @return file path -> content hash
+     */
+    private Map<String, String> storeSources(Path flowsZip) throws IOException {
+        if (!Files.isRegularFile(flowsZip)) {
+            return Map.of();
+        }
+
+        Map<String, String> result = new HashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(Files.newInputStream(flowsZip)))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+
+                byte[] content = zip.readAllBytes();
+                String hash = sha256(content);
+                result.put(entry.getName(), hash);
+
+                if (storedSources.add(hash)) {
+                    Files.write(outputDir.resolve(OBJECTS_DIR).resolve(hash), content);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return source key -> path in the report (and in the flows directory)
+     */
+    private static Map<String, String> sourcePaths(Set<String> keys) {
+        Map<String, Integer> variants = new HashMap<>();
+        for (String key : keys) {
+            variants.merge(pathOf(key), 1, Integer::sum);
+        }
+
+        Map<String, String> result = new HashMap<>();
+        for (String key : keys) {
+            String path = pathOf(key);
+            String hash = hashOf(key);
+            if (variants.get(path) > 1 && hash != null) {
+                path = path + VERSION_SEPARATOR + hash.substring(0, HASH_PREFIX_LENGTH);
+            }
+            result.put(key, path);
+        }
+        return result;
+    }
+
+    private void placeSource(String key, String path) throws IOException {
+        String hash = hashOf(key);
+        if (hash == null) {
+            return;
+        }
+
+        Path dst = outputDir.resolve(FLOWS_DIR).resolve(path).normalize();
+        if (!dst.startsWith(outputDir.resolve(FLOWS_DIR))) {
+            throw new IOException("Invalid flow file path: " + path);
+        }
+
+        Files.createDirectories(dst.getParent());
+        Files.copy(outputDir.resolve(OBJECTS_DIR).resolve(hash), dst, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void deleteObjects() throws IOException {
+        Path dir = outputDir.resolve(OBJECTS_DIR);
+        try (var files = Files.list(dir)) {
+            for (Path p : files.toList()) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private static String pathOf(String key) {
+        int i = key.lastIndexOf(KEY_SEPARATOR);
+        return i > 0 ? key.substring(0, i) : key;
+    }
+
+    private static String hashOf(String key) {
+        int i = key.lastIndexOf(KEY_SEPARATOR);
+        return i > 0 ? key.substring(i + 1) : null;
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public record Result(int inputs, int sources) {
+    }
+
+    private class MergeTask extends RecursiveTask<LcovData> {
+
+        private final List<Path> inputs;
+        private final int from;
+        private final int to;
+
+        private MergeTask(List<Path> inputs, int from, int to) {
+            this.inputs = inputs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected LcovData compute() {
+            if (to - from <= LEAF_SIZE) {
+                LcovData result = new LcovData();
+                for (int i = from; i < to; i++) {
+                    try {
+                        result.merge(parse(inputs.get(i)));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Error while reading " + inputs.get(i), e);
+                    }
+                }
+                return result;
+            }
+
+            int mid = (from + to) >>> 1;
+            MergeTask left = new MergeTask(inputs, from, mid);
+            left.fork();
+            LcovData right = new MergeTask(inputs, mid, to).compute();
+            LcovData result = left.join();
+            result.merge(right);
+            return result;
+        }
+    }
+}
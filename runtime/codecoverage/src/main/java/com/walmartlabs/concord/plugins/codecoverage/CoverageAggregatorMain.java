@@ -0,0 +1,68 @@
+package com.walmartlabs.concord.plugins.codecoverage;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command line entry point of {@link CoverageAggregator}.
+ * <p>
+ * Usage: {@code CoverageAggregatorMain [--parallelism N] <output dir> <input dir>...}
+ */
+public class CoverageAggregatorMain {
+
+    public static void main(String[] args) throws Exception {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--parallelism".equals(args[i]) && i + 1 < args.length) {
+                parallelism = Integer.parseInt(args[++i]);
+            } else {
+                positional.add(args[i]);
+            }
+        }
+
+        if (positional.size() < 2) {
+            System.err.println("Usage: " + CoverageAggregatorMain.class.getName() + " [--parallelism N] <output dir> <input dir>...");
+            System.err.println("Each input dir must contain " + CoverageAggregator.COVERAGE_INFO_FILENAME
+                    + " (and optionally " + CoverageAggregator.FLOWS_FILENAME + ") or subdirectories with them.");
+            System.exit(1);
+        }
+
+        Path outputDir = Paths.get(positional.get(0));
+
+        List<Path> inputs = new ArrayList<>();
+        for (String s : positional.subList(1, positional.size())) {
+            inputs.addAll(CoverageAggregator.findInputs(Paths.get(s)));
+        }
+
+        long start = System.currentTimeMillis();
+        CoverageAggregator.Result result = new CoverageAggregator(outputDir, parallelism).aggregate(inputs);
+
+        System.out.printf("Merged %d reports (%d flow files) into %s in %d ms%n",
+                result.inputs(), result.sources(), outputDir.resolve(CoverageAggregator.COVERAGE_INFO_FILENAME),
+                System.currentTimeMillis() - start);
+    }
+}
@@ -0,0 +1,310 @@
+package com.walmartlabs.concord.plugins.codecoverage;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Execution counters of steps keyed by (file, line, flow, called flow).
+ * <p>
+ * Each distinct key gets a slot, callers can resolve the slot of a step once
+ * and then only {@link #increment(int)} it. Counters are {@link LongAdder}s,
+ * so threads of {@code parallel} blocks don't contend on a lock.
+ * <p>
+ * File and flow names are replaced with dictionary IDs and the whole key is
+ * packed into a {@code long}: 14 bits for the file, 22 bits for the line,
+ * 14 bits for the flow and 14 bits for the called flow. Steps with names
+ * over the dictionary limit are not counted.
+ */
+public class CoverageCounters {
+
+    private static final Logger log = LoggerFactory.getLogger(CoverageCounters.class);
+
+    private static final int MAGIC = 0x43434e31; // CCN1
+
+    private static final int STRING_BITS = 14;
+    private static final int LINE_BITS = 22;
+    private static final int MAX_STRINGS = (1 << STRING_BITS) - 1;
+    private static final int MAX_LINE = (1 << LINE_BITS) - 1;
+    private static final long STRING_MASK = MAX_STRINGS;
+
+    private final Map<String, Integer> stringIds = new ConcurrentHashMap<>();
+    private final List<String> strings = new ArrayList<>();
+
+    private final Map<Long, Integer> slots = new ConcurrentHashMap<>();
+    private long[] keys = new long[64];
+    private volatile LongAdder[] cells = new LongAdder[64];
+    private volatile int slotCount;
+    private boolean dictionaryFull;
+
+    public CoverageCounters() {
+        // ID 0 is reserved for null
+        strings.add(null);
+    }
+
+    /**
+     * @return the slot of the step or {@code -1} if the step can't be recorded
+     */
+    public int slot(String fileName, int line, @Nullable String flow, @Nullable String flowCall) {
+        if (line < 0 || line > MAX_LINE) {
+            return -1;
+        }
+
+        int fileId = id(fileName);
+        int flowId = id(flow);
+        int flowCallId = id(flowCall);
+        if (fileId < 0 || flowId < 0 || flowCallId < 0) {
+            return -1;
+        }
+
+        long key = pack(fileId, line, flowId, flowCallId);
+        Integer slot = slots.get(key);
+        if (slot != null) {
+            return slot;
+        }
+
+        synchronized (this) {
+            slot = slots.get(key);
+            if (slot != null) {
+                return slot;
+            }
+
+            int n = slotCount;
+            if (n == keys.length) {
+                keys = Arrays.copyOf(keys, n * 2);
+                cells = Arrays.copyOf(cells, n * 2);
+            }
+            keys[n] = key;
+            cells[n] = new LongAdder();
+            slotCount = n + 1;
+
+            slots.put(key, n);
+            return n;
+        }
+    }
+
+    public void increment(int slot) {
+        if (slot >= 0) {
+            cells[slot].increment();
+        }
+    }
+
+    public void increment(String fileName, int line, @Nullable String flow, @Nullable String flowCall) {
+        increment(slot(fileName, line, flow, flowCall));
+    }
+
+    public void add(String fileName, int line, @Nullable String flow, @Nullable String flowCall, long count) {
+        int slot = slot(fileName, line, flow, flowCall);
+        if (slot >= 0) {
+            cells[slot].add(count);
+        }
+    }
+
+    public void merge(CoverageCounters other) {
+        other.forEach((step, count) -> add(step.fileName(), step.line(), step.processDefinitionId(), step.flowCallName(), count));
+    }
+
+    /**
+     * @return the number of recorded steps
+     */
+    public int size() {
+        int[] result = {0};
+        forEachSlot((key, count) -> result[0]++);
+        return result[0];
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Resets the counters. The slots stay valid.
+     */
+    public synchronized void clear() {
+        LongAdder[] c = cells;
+        for (int i = 0; i < slotCount; i++) {
+            c[i].reset();
+        }
+    }
+
+    /**
+     * Visits each recorded step once, with the number of executions.
+     */
+    public void forEach(Visitor visitor) {
+        forEachSlot((key, count) -> visitor.visit(unpack(key), count));
+    }
+
+    /**
+     * Writes a compact binary snapshot: the dictionary followed by the packed keys and counts.
+     */
+    public void write(OutputStream out) throws IOException {
+        List<long[]> entries = new ArrayList<>();
+        forEachSlot((key, count) -> entries.add(new long[]{key, count}));
+
+        List<String> dictionary;
+        synchronized (this) {
+            dictionary = new ArrayList<>(strings);
+        }
+
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+        dos.writeInt(MAGIC);
+        dos.writeInt(dictionary.size() - 1);
+        for (int i = 1; i < dictionary.size(); i++) {
+            dos.writeUTF(dictionary.get(i));
+        }
+        dos.writeInt(entries.size());
+        for (long[] e : entries) {
+            dos.writeLong(e[0]);
+            dos.writeLong(e[1]);
+        }
+        dos.flush();
+    }
+
+    /**
+     * Reads a snapshot and adds its counters to the current ones.
+     */
+    public void read(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+        if (dis.readInt() != MAGIC) {
+            throw new IOException("Invalid coverage snapshot");
+        }
+
+        int stringCount = dis.readInt();
+        List<String> snapshotStrings = new ArrayList<>(stringCount + 1);
+        snapshotStrings.add(null);
+        for (int i = 0; i < stringCount; i++) {
+            snapshotStrings.add(dis.readUTF());
+        }
+
+        int count = dis.readInt();
+        for (int i = 0; i < count; i++) {
+            long key = dis.readLong();
+            long value = dis.readLong();
+            add(snapshotStrings.get(fileId(key)), line(key),
+                    snapshotStrings.get(flowId(key)), snapshotStrings.get(flowCallId(key)),
+                    value);
+        }
+    }
+
+    private void forEachSlot(SlotVisitor visitor) {
+        long[] k;
+        LongAdder[] c;
+        int n;
+        synchronized (this) {
+            k = keys;
+            c = cells;
+            n = slotCount;
+        }
+
+        for (int i = 0; i < n; i++) {
+            long count = c[i].sum();
+            if (count != 0) {
+                visitor.visit(k[i], count);
+            }
+        }
+    }
+
+    /**
+     * @return the dictionary ID of the string or {@code -1} if the dictionary is full
+     */
+    private int id(String s) {
+        if (s == null) {
+            return 0;
+        }
+
+        Integer id = stringIds.get(s);
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (this) {
+            id = stringIds.get(s);
+            if (id != null) {
+                return id;
+            }
+
+            if (strings.size() > MAX_STRINGS) {
+                if (!dictionaryFull) {
+                    dictionaryFull = true;
+                    log.warn("CodeCoverage: too many distinct file and flow names (max {}), new steps are not counted", MAX_STRINGS);
+                }
+                return -1;
+            }
+
+            id = strings.size();
+            strings.add(s);
+            stringIds.put(s, id);
+            return id;
+        }
+    }
+
+    private synchronized StepInfo unpack(long key) {
+        return StepInfo.builder()
+                .fileName(strings.get(fileId(key)))
+                .line(line(key))
+                .processDefinitionId(strings.get(flowId(key)))
+                .flowCallName(strings.get(flowCallId(key)))
+                .build();
+    }
+
+    private static long pack(int fileId, int line, int flowId, int flowCallId) {
+        return ((long) fileId << (LINE_BITS + 2 * STRING_BITS))
+                | ((long) line << (2 * STRING_BITS))
+                | ((long) flowId << STRING_BITS)
+                | flowCallId;
+    }
+
+    private static int fileId(long key) {
+        return (int) (key >>> (LINE_BITS + 2 * STRING_BITS));
+    }
+
+    private static int line(long key) {
+        return (int) ((key >>> (2 * STRING_BITS)) & MAX_LINE);
+    }
+
+    private static int flowId(long key) {
+        return (int) ((key >>> STRING_BITS) & STRING_MASK);
+    }
+
+    private static int flowCallId(long key) {
+        return (int) (key & STRING_MASK);
+    }
+
+    public interface Visitor {
+
+        void visit(StepInfo step, long count);
+    }
+
+    private interface SlotVisitor {
+
+        void visit(long key, long count);
+    }
+}
@@ -0,0 +1,192 @@
+package com.walmartlabs.concord.plugins.codecoverage;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import com.walmartlabs.concord.runtime.v2.runner.PersistenceService;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Saves the flow files as the {@code flows.zip} process attachment.
+ * <p>
+ * The files are saved in a background thread, so the process doesn't wait
+ * for it. Together with the archive a manifest with SHA-256 hashes of the
+ * files is saved ({@code flows.sha256}, in the {@code sha256sum} format).
+ * The hashes are computed while the files are zipped.
+ * <p>
+ * The archive is written on every save: the attachments of the previous
+ * runs aren't available to the process, so unchanged flows can't be skipped.
+ */
+public class FlowsArchive {
+
+    private static final Logger log = LoggerFactory.getLogger(FlowsArchive.class);
+
+    public static final String FLOWS_FILENAME = "flows.zip";
+    public static final String MANIFEST_FILENAME = "flows.sha256";
+
+    private final PersistenceService persistenceService;
+    private final Path workDir;
+
+    private CompletableFuture<Void> result = CompletableFuture.completedFuture(null);
+
+    public FlowsArchive(PersistenceService persistenceService, Path workDir) {
+        this.persistenceService = persistenceService;
+        this.workDir = workDir;
+    }
+
+    /**
+     * Starts saving the files in a background thread.
+     */
+    public synchronized void start(Set<String> fileNames) {
+        CompletableFuture<Void> f = new CompletableFuture<>();
+
+        Thread t = new Thread(() -> {
+            try {
+                save(fileNames);
+                f.complete(null);
+            } catch (Throwable e) {
+                f.completeExceptionally(e);
+            }
+        }, "codecoverage-flows");
+        t.setDaemon(true);
+        t.start();
+
+        this.result = f;
+    }
+
+    /**
+     * Waits until the files are saved.
+     */
+    public void await() {
+        CompletableFuture<Void> f;
+        synchronized (this) {
+            f = result;
+        }
+
+        try {
+            f.join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Can't save flows", e.getCause());
+        }
+    }
+
+    void save(Set<String> fileNames) throws IOException {
+        long t1 = System.currentTimeMillis();
+
+        var hashes = new TreeMap<String, String>();
+        persistenceService.persistFile(FLOWS_FILENAME, out -> zip(out, new TreeSet<>(fileNames), hashes),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        persistenceService.persistFile(MANIFEST_FILENAME, out -> out.write(manifest(hashes).getBytes(StandardCharsets.UTF_8)),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+        log.debug("CodeCoverage: flows saved as '{}' process attachment ({} ms)", FLOWS_FILENAME, System.currentTimeMillis() - t1);
+    }
+
+    /**
+     * Zips the files and collects their hashes into {@code hashes}.
+     */
+    private void zip(OutputStream out, Collection<String> fileNames, Map<String, String> hashes) throws IOException {
+        try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(out)) {
+            for (var fileName : fileNames) {
+                var file = workDir.resolve(fileName);
+                if (Files.notExists(file)) {
+                    log.warn("CodeCoverage: can't save flow '{}' -> file not exists. This is most likely a bug", fileName);
+                    continue;
+                }
+
+                try {
+                    hashes.put(fileName, zipFile(zip, file, fileName));
+                } catch (IOException ex) {
+                    log.error("CodeCoverage: failed to add file '{}'. Error: {}", fileName, ex.getMessage());
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    private static String zipFile(ZipArchiveOutputStream zip, Path file, String name) throws IOException {
+        var digest = sha256Digest();
+
+        zip.putArchiveEntry(new ZipArchiveEntry(file, name));
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(zip);
+        }
+        zip.closeArchiveEntry();
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static String manifest(SortedMap<String, String> hashes) {
+        var sb = new StringBuilder();
+        for (var e : hashes.entrySet()) {
+            sb.append(e.getValue()).append("  ").append(e.getKey()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parses a manifest.
+     *
+     * @return file name -> hash
+     */
+    public static Map<String, String> parseManifest(InputStream in) throws IOException {
+        var result = new HashMap<String, String>();
+        for (var line : new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+            int i = line.indexOf("  ");
+            if (i > 0) {
+                result.put(line.substring(i + 2), line.substring(0, i));
+            }
+        }
+        return result;
+    }
+
+    static String sha256(Path file) throws IOException {
+        var digest = sha256Digest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
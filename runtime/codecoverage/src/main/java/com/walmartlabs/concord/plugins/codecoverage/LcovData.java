@@ -0,0 +1,251 @@
+package com.walmartlabs.concord.plugins.codecoverage;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+
+/**
+ * Parsed LCOV records of one or more coverage reports.
+ * Summary records ({@code FNF}, {@code LF}, etc.) are recomputed when written.
+ */
+public class LcovData {
+
+    private final Map<String, FileData> files = new HashMap<>();
+
+    /**
+     * @param sourceKey maps {@code SF} paths to the keys the records are merged by
+     */
+    public static LcovData parse(BufferedReader reader, Function<String, String> sourceKey) throws IOException {
+        LcovData result = new LcovData();
+
+        FileData current = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("SF:")) {
+                current = result.files.computeIfAbsent(sourceKey.apply(line.substring(3)), k -> new FileData());
+            } else if (line.equals("end_of_record")) {
+                current = null;
+            } else if (current != null) {
+                current.parse(line);
+            }
+        }
+
+        return result;
+    }
+
+    public Set<String> sourceKeys() {
+        return files.keySet();
+    }
+
+    public boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    /**
+     * Adds the counters of the other report to this one.
+     */
+    public void merge(LcovData other) {
+        for (Map.Entry<String, FileData> e : other.files.entrySet()) {
+            FileData data = files.get(e.getKey());
+            if (data == null) {
+                files.put(e.getKey(), e.getValue());
+            } else {
+                data.merge(e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Removes the records of the files and lines that are not changed.
+     * Branches are kept if the line of the branching step is changed,
+     * functions - if the line of the flow definition is changed.
+     */
+    public void retain(ChangedLines changes) {
+        files.keySet().removeIf(k -> !changes.isChanged(k));
+        for (Map.Entry<String, FileData> e : files.entrySet()) {
+            String fileName = e.getKey();
+            e.getValue().retain(line -> changes.isChanged(fileName, line));
+        }
+    }
+
+    /**
+     * @param sourcePath maps the source keys to {@code SF} paths
+     */
+    public void write(Writer out, Function<String, String> sourcePath) throws IOException {
+        LcovWriter writer = new LcovWriter(out);
+
+        List<String> keys = new ArrayList<>(files.keySet());
+        keys.sort(Comparator.comparing(sourcePath));
+        for (String key : keys) {
+            writer.record("TN:");
+            writer.record("SF:", sourcePath.apply(key));
+            files.get(key).write(writer);
+            writer.record("end_of_record");
+        }
+
+        writer.flush();
+    }
+
+    private static class FileData {
+
+        private final Map<String, FunctionData> functions = new HashMap<>();
+
+        /**
+         * line + 1 -> execution count
+         */
+        private final LongLongMap lines = new LongLongMap();
+
+        /**
+         * (line, block, branch) -> taken + 1, {@code 0} if the branch was never evaluated
+         */
+        private final LongLongMap branches = new LongLongMap();
+
+        private void parse(String line) {
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                return;
+            }
+
+            String type = line.substring(0, colon);
+            String value = line.substring(colon + 1);
+            // function names can contain commas
+            String[] values = type.equals("FN") || type.equals("FNDA") ? value.split(",", 2) : value.split(",");
+            try {
+                switch (type) {
+                    case "FN" -> function(values[1]).line = Integer.parseInt(values[0]);
+                    case "FNDA" -> function(values[1]).count += Long.parseLong(values[0]);
+                    case "DA" -> lines.add(Integer.parseInt(values[0]) + 1L, Long.parseLong(values[1]));
+                    case "BRDA" -> {
+                        long key = branchKey(Integer.parseInt(values[0]), Integer.parseInt(values[1]), Integer.parseInt(values[2]));
+                        mergeBranch(key, "-".equals(values[3]) ? 0 : Long.parseLong(values[3]) + 1);
+                    }
+                    default -> {
+                        // summaries are recomputed, other records are not supported
+                    }
+                }
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid LCOV record: " + line, e);
+            }
+        }
+
+        private FunctionData function(String name) {
+            return functions.computeIfAbsent(name, k -> new FunctionData());
+        }
+
+        private void merge(FileData other) {
+            for (Map.Entry<String, FunctionData> e : other.functions.entrySet()) {
+                FunctionData f = function(e.getKey());
+                f.line = e.getValue().line;
+                f.count += e.getValue().count;
+            }
+            other.lines.forEach(lines::add);
+            other.branches.forEach(this::mergeBranch);
+        }
+
+        private void retain(IntPredicate changedLine) {
+            functions.values().removeIf(f -> !changedLine.test(f.line));
+            retain(lines, key -> changedLine.test((int) (key - 1)));
+            retain(branches, key -> changedLine.test((int) (key >>> 32) - 1));
+        }
+
+        private static void retain(LongLongMap map, LongPredicate key) {
+            LongLongMap retained = new LongLongMap();
+            map.forEach((k, v) -> {
+                if (key.test(k)) {
+                    retained.put(k, v);
+                }
+            });
+            map.clear();
+            retained.forEach(map::put);
+        }
+
+        private void mergeBranch(long key, long value) {
+            if (!branches.containsKey(key)) {
+                branches.put(key, value);
+                return;
+            }
+
+            long current = branches.get(key);
+            if (current == 0 && value == 0) {
+                return;
+            }
+            branches.put(key, Math.max(current - 1, 0) + Math.max(value - 1, 0) + 1);
+        }
+
+        private void write(LcovWriter writer) throws IOException {
+            List<Map.Entry<String, FunctionData>> fns = new ArrayList<>(functions.entrySet());
+            fns.sort(Comparator.<Map.Entry<String, FunctionData>>comparingInt(e -> e.getValue().line).thenComparing(Map.Entry::getKey));
+
+            int functionsHit = 0;
+            for (Map.Entry<String, FunctionData> e : fns) {
+                writer.record("FN:", e.getValue().line, e.getKey());
+            }
+            for (Map.Entry<String, FunctionData> e : fns) {
+                if (e.getValue().count > 0) {
+                    functionsHit++;
+                }
+                writer.record("FNDA:", e.getValue().count, e.getKey());
+            }
+            writer.record("FNF:", fns.size());
+            writer.record("FNH:", functionsHit);
+
+            int branchesHit = 0;
+            long[] branchKeys = branches.sortedKeys();
+            for (long k : branchKeys) {
+                long taken = branches.get(k) - 1;
+                if (taken > 0) {
+                    branchesHit++;
+                }
+                writer.branch((int) (k >>> 32) - 1, (int) ((k >>> 16) & 0xFFFF), (int) (k & 0xFFFF), taken);
+            }
+            writer.record("BRF:", branchKeys.length);
+            writer.record("BRH:", branchesHit);
+
+            int linesHit = 0;
+            long[] lineKeys = lines.sortedKeys();
+            for (long k : lineKeys) {
+                long count = lines.get(k);
+                if (count > 0) {
+                    linesHit++;
+                }
+                writer.record("DA:", k - 1, count);
+            }
+            writer.record("LF:", lineKeys.length);
+            writer.record("LH:", linesHit);
+        }
+
+        private static long branchKey(int line, int block, int branch) {
+            return ((line + 1L) << 32) | ((long) (block & 0xFFFF) << 16) | (branch & 0xFFFF);
+        }
+    }
+
+    private static class FunctionData {
+
+        private int line;
+        private long count;
+    }
+}
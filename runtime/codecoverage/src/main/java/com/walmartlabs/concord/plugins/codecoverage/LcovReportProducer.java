@@ -4,7 +4,7 @@ package com.walmartlabs.concord.plugins.codecoverage;
  * *****
  * Concord
  * -----
- * Copyright (C) 2017 - 2024 Walmart Inc.
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
  * -----
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -20,23 +20,30 @@ package com.walmartlabs.concord.plugins.codecoverage;
  * =====
  */
 
-import com.walmartlabs.concord.runtime.v2.model.ProcessDefinition;
+import com.walmartlabs.concord.runtime.v2.model.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedWriter;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * Produces a coverage report in the LCOV format.
+ * <p>
+ * Lines found are the locations of all flows and steps of the process
+ * definition. {@code if} and {@code switch} steps are reported as branches:
+ * a branch is taken as many times as its first step was executed, a missing
+ * {@code else} or {@code default} branch gets the remaining executions.
+ */
 public class LcovReportProducer {
 
     private static final Logger log = LoggerFactory.getLogger(LcovReportProducer.class);
 
-    private final Map<String, Stats> statsPerFile = new HashMap<>();
+    private final Map<String, FileStats> statsPerFile = new HashMap<>();
+    private final Map<String, FlowStats> flows = new HashMap<>();
 
     public LcovReportProducer(ProcessDefinition processDefinition) {
         init(processDefinition);
@@ -47,170 +54,291 @@ public class LcovReportProducer {
     }
 
     public void onStep(StepInfo step) {
-        var fileName = step.fileName();
+        onStep(step, 1);
+    }
 
-        var stats = statsPerFile.get(fileName);
+    public void onStep(StepInfo step, long count) {
+        var stats = statsPerFile.get(step.fileName());
         if (stats == null) {
-            log.warn("Can't find definitions for '{}'. This is most likely a bug.", fileName);
+            log.warn("Can't find definitions for '{}'. This is most likely a bug.", step.fileName());
             return;
         }
 
-        stats.onLineExecuted( step.line());
+        stats.lines.add(key(step.line()), count);
 
         var flowCallName = step.flowCallName();
         if (flowCallName != null) {
-            var statsForFlow = findStatsForFlow(flowCallName);
-            if (statsForFlow != null) {
-                statsForFlow.onFlowCall(flowCallName);
+            var flow = findFlow(flowCallName);
+            if (flow != null) {
+                flow.calls += count;
             }
         }
 
         var processDefinitionId = step.processDefinitionId();
         if (processDefinitionId != null) {
             // as we do not have call step for entry point
-            var statsForFlow = findStatsForFlow(processDefinitionId);
-            if (statsForFlow != null) {
-                statsForFlow.markCalled(processDefinitionId);
+            var flow = findFlow(processDefinitionId);
+            if (flow != null) {
+                flow.entered = true;
             }
         }
     }
 
-
     public void produce(OutputStream out) throws IOException {
-        try (var writer = new BufferedWriter(new OutputStreamWriter(out))) {
-            for (var statsEntry : statsPerFile.entrySet()) {
-                // TN (Test Name):
-                // Optional. Can be left empty or used to specify the name of the test.
-                writer.write("TN:");
-                writer.newLine();
-
-                // SF (Source File Path):
-                // Specifies the path to the source file for which the coverage data is provided.
-                writer.write("SF:" + statsEntry.getKey());
-                writer.newLine();
-
-                var stats = statsEntry.getValue();
-                for (var flowEntry : stats.flowLocationByName.entrySet()) {
-                    // FN (Function):
-                    // The start line and name of the function in the source file.
-                    writer.write(String.format("FN:%d,%s", flowEntry.getValue(), flowEntry.getKey()));
-                    writer.newLine();
-                }
+        produce(out, null);
+    }
+
+    /**
+     * @param changes if specified, only the records of the changed lines are written.
+     *                Branches are kept if the line of the branching step is changed,
+     *                functions - if the line of the flow definition is changed.
+     */
+    public void produce(OutputStream out, @Nullable ChangedLines changes) throws IOException {
+        var writer = new LcovWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+
+        var fileNames = new ArrayList<>(statsPerFile.keySet());
+        Collections.sort(fileNames);
+
+        for (var fileName : fileNames) {
+            if (changes == null) {
+                writeFile(writer, fileName, statsPerFile.get(fileName), line -> true);
+            } else if (changes.isChanged(fileName)) {
+                writeFile(writer, fileName, statsPerFile.get(fileName), line -> changes.isChanged(fileName, line));
+            }
+        }
+
+        writer.flush();
+    }
+
+    private static void writeFile(LcovWriter writer, String fileName, FileStats stats, IntPredicate changedLine) throws IOException {
+        // flow definition lines are executed when the flow is called
+        var lines = new LongLongMap(stats.lines.size());
+        stats.lines.forEach(lines::add);
+        for (var flow : stats.flows) {
+            lines.add(key(flow.line), flow.hits());
+        }
+
+        // TN (Test Name), SF (Source File Path)
+        writer.record("TN:");
+        writer.record("SF:", fileName);
 
-                for (var execEntry : stats.flowExecCountByName.entrySet()) {
-                    // FNDA (Function Data):
-                    // The number of times the function was executed, followed by the function name.
-                    writer.write(String.format("FNDA:%d,%s", execEntry.getValue(), execEntry.getKey()));
-                    writer.newLine();
+        // FN (Function): the start line and name of the function
+        // FNDA (Function Data): the number of times the function was executed
+        var flows = stats.flows.stream().filter(f -> changedLine.test(f.line)).toList();
+        int functionsHit = 0;
+        for (var flow : flows) {
+            writer.record("FN:", flow.line, flow.name);
+        }
+        for (var flow : flows) {
+            long hits = flow.hits();
+            if (hits > 0) {
+                functionsHit++;
+            }
+            writer.record("FNDA:", hits, flow.name);
+        }
+        writer.record("FNF:", flows.size());
+        writer.record("FNH:", functionsHit);
+
+        // BRDA (Branch Data): line, block, branch and the number of times the branch was taken
+        int branchesFound = 0;
+        int branchesHit = 0;
+        for (var branch : stats.branches) {
+            if (!changedLine.test(branch.line)) {
+                continue;
+            }
+
+            long executions = lines.get(key(branch.line));
+            long explicit = 0;
+            for (int i = 0; i < branch.firstLines.length; i++) {
+                int firstLine = branch.firstLines[i];
+                long taken = firstLine >= 0 ? lines.get(key(firstLine)) : Math.max(0, executions - explicit);
+                if (firstLine >= 0) {
+                    explicit += taken;
                 }
 
-                // Function summary
-                // FNF (Functions Found):
-                // The number of functions found in the file.
-                writer.write("FNF:" + stats.flowLocationByName.size());
-                writer.newLine();
-
-                // FNH (Functions Hit):
-                // The number of functions that were executed at least once.
-                writer.write("FNH:" + stats.flowExecCountByName.size());
-                writer.newLine();
-
-                // Line coverage data
-                // DA (Data Array):
-                // Line number and the execution count for that line.
-                for (var e : stats.stepExecCountByLineNumber.entrySet()) {
-                    writer.write(String.format("DA:%d,%d", e.getKey(), e.getValue()));
-                    writer.newLine();
+                branchesFound++;
+                if (executions == 0) {
+                    writer.branch(branch.line, branch.block, i, -1);
+                } else {
+                    writer.branch(branch.line, branch.block, i, taken);
+                    if (taken > 0) {
+                        branchesHit++;
+                    }
                 }
+            }
+        }
+        writer.record("BRF:", branchesFound);
+        writer.record("BRH:", branchesHit);
+
+        // DA (Data Array): line number and the execution count
+        int linesFound = 0;
+        int linesHit = 0;
+        for (long k : lines.sortedKeys()) {
+            if (!changedLine.test(line(k))) {
+                continue;
+            }
 
-                // Branch coverage data
-                // BRDA (Branch Data Array):
-                // Line number, block number, branch number, and the execution count for branches.
-                //
-                // Branch summary
-                // BRF (Branches Found):
-                // The total number of branches found.
-                //
-                // BRH (Branches Hit):
-                // The number of branches that were taken.
-
-                // line summary
-                // LF (Lines Found):
-                // The total number of lines found in the source file.
-                writer.write("LF:7");
-                writer.newLine();
-                // LH (Lines Hit):
-                // The number of lines that were executed at least once.
-                writer.write("LH:6");
-                writer.newLine();
-
-                // End of record
-                writer.write("end_of_record");
-                writer.newLine();
+            long count = lines.get(k);
+            linesFound++;
+            if (count > 0) {
+                linesHit++;
             }
+            writer.record("DA:", line(k), count);
         }
+
+        // LF (Lines Found), LH (Lines Hit)
+        writer.record("LF:", linesFound);
+        writer.record("LH:", linesHit);
+
+        writer.record("end_of_record");
     }
 
     private void init(ProcessDefinition processDefinition) {
         for (var fd : processDefinition.flows().entrySet()) {
-            var fileName = fd.getValue().location().fileName();
+            var flowName = fd.getKey();
+            var flow = fd.getValue();
+            var fileName = flow.location().fileName();
+            if (fileName == null) {
+                continue;
+            }
+
+            var stats = statsPerFile.computeIfAbsent(fileName, k -> new FileStats());
+
+            var flowStats = new FlowStats(flowName, flow.location().lineNum());
+            stats.flows.add(flowStats);
+            flows.put(flowName, flowStats);
 
-            var stats = statsPerFile.computeIfAbsent(fileName, k -> new Stats());
-            stats.init(fd.getKey(), fd.getValue().location().lineNum());
+            stats.lines.add(key(flowStats.line), 0);
+            collect(stats, flow.steps());
+        }
+
+        for (var stats : statsPerFile.values()) {
+            stats.flows.sort(Comparator.comparingInt(f -> f.line));
+            stats.branches.sort(Comparator.comparingInt(b -> b.line));
         }
     }
 
-    private Stats findStatsForFlow(String flow) {
-        for (var stats : statsPerFile.entrySet()) {
-            if (stats.getValue().containsFlow(flow)) {
-                return stats.getValue();
+    private static void collect(FileStats stats, List<Step> steps) {
+        if (steps == null) {
+            return;
+        }
+
+        for (var step : steps) {
+            var loc = step.getLocation();
+            if (loc == null || loc.lineNum() < 0) {
+                continue;
+            }
+
+            int line = loc.lineNum();
+            stats.lines.add(key(line), 0);
+
+            if (step instanceof IfStep s) {
+                stats.addBranch(line, firstLine(s.getThenSteps()), firstLine(s.getElseSteps()));
+                collect(stats, s.getThenSteps());
+                collect(stats, s.getElseSteps());
+            } else if (step instanceof SwitchStep s) {
+                var cases = s.getCaseSteps();
+                int[] firstLines = new int[cases.size() + 1];
+                for (int i = 0; i < cases.size(); i++) {
+                    firstLines[i] = firstLine(cases.get(i).getValue());
+                    collect(stats, cases.get(i).getValue());
+                }
+                firstLines[cases.size()] = firstLine(s.getDefault());
+                collect(stats, s.getDefault());
+                stats.addBranch(line, firstLines);
+            } else if (step instanceof GroupOfSteps s) {
+                collect(stats, s.getSteps());
+                if (s.getOptions() != null) {
+                    collect(stats, s.getOptions().errorSteps());
+                }
+            } else if (step instanceof ParallelBlock s) {
+                collect(stats, s.getSteps());
+            } else if (step instanceof TaskCall s) {
+                if (s.getOptions() != null) {
+                    collect(stats, s.getOptions().errorSteps());
+                }
+            } else if (step instanceof FlowCall s) {
+                if (s.getOptions() != null) {
+                    collect(stats, s.getOptions().errorSteps());
+                }
+            } else if (step instanceof Expression s) {
+                if (s.getOptions() != null) {
+                    collect(stats, s.getOptions().errorSteps());
+                }
+            } else if (step instanceof ScriptCall s) {
+                if (s.getOptions() != null) {
+                    collect(stats, s.getOptions().errorSteps());
+                }
             }
         }
-        log.warn("Can't find stats for {} flow. This is most likely a bug.", flow);
-        return null;
     }
 
-    private static class Stats {
+    /**
+     * @return line of the first step or {@code -1} if there are no steps
+     */
+    private static int firstLine(List<Step> steps) {
+        if (steps == null || steps.isEmpty()) {
+            return -1;
+        }
 
-        private final Map<String, Integer> flowLocationByName = new HashMap<>();
+        var loc = steps.get(0).getLocation();
+        return loc != null && loc.lineNum() >= 0 ? loc.lineNum() : -1;
+    }
 
-        private final Map<String, Integer> flowExecCountByName = new HashMap<>();
+    private FlowStats findFlow(String flow) {
+        var result = flows.get(flow);
+        if (result == null) {
+            log.warn("Can't find stats for {} flow. This is most likely a bug.", flow);
+        }
+        return result;
+    }
 
-        private final Map<Integer, Integer> stepExecCountByLineNumber = new HashMap<>();
+    /**
+     * Line numbers are used as {@link LongLongMap} keys, {@code 0} is reserved.
+     */
+    private static long key(int line) {
+        return line + 1L;
+    }
 
-        public void init(String flowName, int location) {
-            flowLocationByName.put(flowName, location);
-            stepExecCountByLineNumber.put(location, 0);
-        }
+    private static int line(long key) {
+        return (int) (key - 1);
+    }
 
-        public void onLineExecuted(int lineNum) {
-            stepExecCountByLineNumber.compute(lineNum, (k, v) -> v == null ? 1 : v + 1);
-        }
+    private static class FileStats {
 
-        public void onFlowCall(String flow) {
-            assertContainsFlow(flow);
+        private final LongLongMap lines = new LongLongMap();
+        private final List<FlowStats> flows = new ArrayList<>();
+        private final List<Branch> branches = new ArrayList<>();
 
-            flowExecCountByName.compute(flow, (k, v) -> v == null ? 1 : v + 1);
-            onLineExecuted(flowLocationByName.get(flow));
+        private void addBranch(int line, int... firstLines) {
+            branches.add(new Branch(line, branches.size(), firstLines));
         }
+    }
 
-        public void markCalled(String flow) {
-            assertContainsFlow(flow);
+    private static class FlowStats {
 
-            Integer prev = flowExecCountByName.putIfAbsent(flow, 1);
-            if (prev == null) {
-                onLineExecuted(flowLocationByName.get(flow));
-            }
-        }
+        private final String name;
+        private final int line;
+        private long calls;
+        private boolean entered;
 
-        public boolean containsFlow(String flow) {
-            return flowLocationByName.containsKey(flow);
+        private FlowStats(String name, int line) {
+            this.name = name;
+            this.line = line;
         }
 
-        private void assertContainsFlow(String flow) {
-            if (!flowLocationByName.containsKey(flow)) {
-                throw new IllegalArgumentException("Trying update stats for flow without flow definition " + flow);
+        private long hits() {
+            if (calls > 0) {
+                return calls;
             }
+            return entered ? 1 : 0;
         }
     }
+
+    /**
+     * @param firstLines lines of the first steps of the branches, {@code -1} for
+     *                   a missing {@code else} or {@code default} branch
+     */
+    private record Branch(int line, int block, int[] firstLines) {
+    }
 }
@@ -0,0 +1,85 @@
+package com.walmartlabs.concord.plugins.codecoverage;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes LCOV records without formatting overhead.
+ */
+final class LcovWriter {
+
+    private final Writer out;
+
+    LcovWriter(Writer out) {
+        this.out = out;
+    }
+
+    void record(String prefix) throws IOException {
+        out.write(prefix);
+        out.write('\n');
+    }
+
+    void record(String prefix, String value) throws IOException {
+        out.write(prefix);
+        out.write(value);
+        out.write('\n');
+    }
+
+    void record(String prefix, long value) throws IOException {
+        out.write(prefix);
+        out.write(Long.toString(value));
+        out.write('\n');
+    }
+
+    void record(String prefix, long a, long b) throws IOException {
+        out.write(prefix);
+        out.write(Long.toString(a));
+        out.write(',');
+        out.write(Long.toString(b));
+        out.write('\n');
+    }
+
+    void record(String prefix, long a, String b) throws IOException {
+        out.write(prefix);
+        out.write(Long.toString(a));
+        out.write(',');
+        out.write(b);
+        out.write('\n');
+    }
+
+    void branch(int line, int block, int branch, long taken) throws IOException {
+        out.write("BRDA:");
+        out.write(Integer.toString(line));
+        out.write(',');
+        out.write(Integer.toString(block));
+        out.write(',');
+        out.write(Integer.toString(branch));
+        out.write(',');
+        out.write(taken < 0 ? "-" : Long.toString(taken));
+        out.write('\n');
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+}
@@ -0,0 +1,436 @@
+package com.walmartlabs.concord.plugins.codecoverage;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records wall-clock time of steps per (file, line) and of flow calls per flow.
+ * <p>
+ * Each VM thread keeps a stack of the called flows. The time of a step is
+ * added to its line and excluded from the "self" time of the enclosing flow.
+ * The wall-clock time of a flow call is added to the line of the call step.
+ * <p>
+ * Produces a collapsed-stack file (one {@code flow;flow;file:line <micros>} per
+ * line, compatible with flamegraph.pl and speedscope) and a hot-spot table.
+ * <p>
+ * The collected times can be saved when the process suspends and merged after
+ * it resumes, steps and flow calls in progress at the time are not saved.
+ * <p>
+ * A thread's profile is removed when the thread has no flow calls and no step
+ * in progress, so the profiles of finished threads (e.g. of parallel blocks)
+ * are not kept.
+ */
+public class Profiler {
+
+    private static final int MAGIC = 0x43435032; // CCP2
+
+    /**
+     * Log2 buckets of durations in nanoseconds.
+     */
+    private static final int BUCKETS = 64;
+
+    private final Map<Object, ThreadProfile> threads = new ConcurrentHashMap<>();
+    private final Map<LineKey, LineStats> lines = new ConcurrentHashMap<>();
+    private final Map<String, FlowStats> flows = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> stacks = new ConcurrentHashMap<>();
+
+    public void stepStarted(Object threadId, long nanos) {
+        ThreadProfile t = thread(threadId);
+        t.stepStarted = true;
+        t.stepStartedAt = nanos;
+    }
+
+    public void stepEnded(Object threadId, String fileName, int line, String flow, long nanos) {
+        ThreadProfile t = threads.get(threadId);
+        if (t == null || !t.stepStarted) {
+            return;
+        }
+
+        long duration = nanos - t.stepStartedAt;
+        t.stepStarted = false;
+        removeIfIdle(threadId, t);
+
+        line(fileName, line, flow).add(duration);
+
+        FlowFrame top = t.frames.peek();
+        if (top != null) {
+            top.childNanos += duration;
+        }
+
+        String frame = fileName + ":" + line;
+        stacks.computeIfAbsent(t.stack(flow) + ";" + frame, k -> new LongAdder()).add(duration);
+    }
+
+    /**
+     * Called when the frame of a called flow is pushed.
+     */
+    public void flowEntered(Object threadId, Object frameId, String flow, String callerFlow,
+                            String fileName, int callLine, long nanos) {
+
+        ThreadProfile t = thread(threadId);
+        if (t.frames.isEmpty() && t.root == null) {
+            t.root = callerFlow;
+        }
+        t.frames.push(new FlowFrame(frameId, flow, fileName, callLine, callerFlow, nanos));
+        t.stack = null;
+    }
+
+    /**
+     * Called before a frame is popped, ends the flow call if the frame belongs to one.
+     */
+    public void frameExiting(Object threadId, Object frameId, long nanos) {
+        ThreadProfile t = threads.get(threadId);
+        if (t == null) {
+            return;
+        }
+
+        FlowFrame top = t.frames.peek();
+        if (top == null || !top.frameId.equals(frameId)) {
+            return;
+        }
+
+        String stack = t.stack(top.flow);
+        t.frames.pop();
+        t.stack = null;
+
+        long wall = nanos - top.startedAt;
+        long self = Math.max(0, wall - top.childNanos);
+
+        flows.computeIfAbsent(top.flow, k -> new FlowStats()).add(wall, self);
+        line(top.fileName, top.callLine, top.callerFlow).add(wall);
+        stacks.computeIfAbsent(stack, k -> new LongAdder()).add(self);
+
+        FlowFrame parent = t.frames.peek();
+        if (parent != null) {
+            parent.childNanos += wall;
+        }
+
+        removeIfIdle(threadId, t);
+    }
+
+    private void removeIfIdle(Object threadId, ThreadProfile t) {
+        if (t.frames.isEmpty() && !t.stepStarted) {
+            threads.remove(threadId);
+        }
+    }
+
+    int threadCount() {
+        return threads.size();
+    }
+
+    public boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    /**
+     * Writes a binary snapshot of the collected times.
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+        dos.writeInt(MAGIC);
+
+        List<Map.Entry<LineKey, LineStats>> lineEntries = new ArrayList<>(lines.entrySet());
+        dos.writeInt(lineEntries.size());
+        for (Map.Entry<LineKey, LineStats> e : lineEntries) {
+            writeString(dos, e.getKey().fileName());
+            dos.writeInt(e.getKey().line());
+            writeNullable(dos, e.getKey().flow());
+            e.getValue().write(dos);
+        }
+
+        List<Map.Entry<String, FlowStats>> flowEntries = new ArrayList<>(flows.entrySet());
+        dos.writeInt(flowEntries.size());
+        for (Map.Entry<String, FlowStats> e : flowEntries) {
+            writeString(dos, e.getKey());
+            dos.writeLong(e.getValue().calls.sum());
+            dos.writeLong(e.getValue().wallNanos.sum());
+            dos.writeLong(e.getValue().selfNanos.sum());
+        }
+
+        List<Map.Entry<String, LongAdder>> stackEntries = new ArrayList<>(stacks.entrySet());
+        dos.writeInt(stackEntries.size());
+        for (Map.Entry<String, LongAdder> e : stackEntries) {
+            writeString(dos, e.getKey());
+            dos.writeLong(e.getValue().sum());
+        }
+
+        dos.flush();
+    }
+
+    /**
+     * Reads a snapshot and adds its times to the current ones.
+     */
+    public void read(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+        if (dis.readInt() != MAGIC) {
+            throw new IOException("Invalid profiler snapshot");
+        }
+
+        int lineCount = dis.readInt();
+        for (int i = 0; i < lineCount; i++) {
+            line(readString(dis), dis.readInt(), readNullable(dis)).read(dis);
+        }
+
+        int flowCount = dis.readInt();
+        for (int i = 0; i < flowCount; i++) {
+            FlowStats f = flows.computeIfAbsent(readString(dis), k -> new FlowStats());
+            f.calls.add(dis.readLong());
+            f.wallNanos.add(dis.readLong());
+            f.selfNanos.add(dis.readLong());
+        }
+
+        int stackCount = dis.readInt();
+        for (int i = 0; i < stackCount; i++) {
+            stacks.computeIfAbsent(readString(dis), k -> new LongAdder()).add(dis.readLong());
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            writeString(out, s);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? readString(in) : null;
+    }
+
+    /**
+     * Unlike {@link DataOutputStream#writeUTF(String)}, not limited to 64 KB
+     * (the keys of deep call stacks can be longer).
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the collapsed stacks, values are in microseconds.
+     */
+    public void writeCollapsed(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+
+        List<String> keys = new ArrayList<>(stacks.keySet());
+        Collections.sort(keys);
+        for (String k : keys) {
+            long micros = stacks.get(k).sum() / 1000;
+            if (micros == 0) {
+                continue;
+            }
+            writer.write(k);
+            writer.write(' ');
+            writer.write(Long.toString(micros));
+            writer.write('\n');
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * Writes the lines and flows sorted by the total time.
+     */
+    public void writeHotSpots(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+
+        writer.write(String.format(Locale.ROOT, "%12s %10s %10s %10s %10s  %s%n", "total ms", "count", "avg ms", "p99 ms", "max ms", "location (flow)"));
+
+        List<Map.Entry<LineKey, LineStats>> sortedLines = new ArrayList<>(lines.entrySet());
+        sortedLines.sort(Comparator.comparingLong((Map.Entry<LineKey, LineStats> e) -> e.getValue().total()).reversed());
+        for (Map.Entry<LineKey, LineStats> e : sortedLines) {
+            LineKey k = e.getKey();
+            LineStats s = e.getValue();
+            synchronized (s) {
+                writer.write(String.format(Locale.ROOT, "%12.3f %10d %10.3f %10.3f %10.3f  %s:%d (%s)%n",
+                        ms(s.totalNanos), s.count, ms(s.totalNanos / Math.max(1, s.count)),
+                        ms(s.percentile(0.99)), ms(s.maxNanos), k.fileName(), k.line(), k.flow()));
+            }
+        }
+
+        writer.write(String.format(Locale.ROOT, "%n%12s %12s %10s  %s%n", "wall ms", "self ms", "calls", "flow"));
+
+        List<Map.Entry<String, FlowStats>> sortedFlows = new ArrayList<>(flows.entrySet());
+        sortedFlows.sort(Comparator.comparingLong((Map.Entry<String, FlowStats> e) -> e.getValue().wallNanos.sum()).reversed());
+        for (Map.Entry<String, FlowStats> e : sortedFlows) {
+            FlowStats s = e.getValue();
+            writer.write(String.format(Locale.ROOT, "%12.3f %12.3f %10d  %s%n",
+                    ms(s.wallNanos.sum()), ms(s.selfNanos.sum()), s.calls.sum(), e.getKey()));
+        }
+
+        writer.flush();
+    }
+
+    private ThreadProfile thread(Object threadId) {
+        return threads.computeIfAbsent(threadId, k -> new ThreadProfile());
+    }
+
+    private LineStats line(String fileName, int line, String flow) {
+        return lines.computeIfAbsent(new LineKey(fileName, line, flow), k -> new LineStats());
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private record LineKey(String fileName, int line, String flow) {
+    }
+
+    /**
+     * Fixed-size histogram of durations.
+     */
+    private static class LineStats {
+
+        private final long[] buckets = new long[BUCKETS];
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        private synchronized void add(long nanos) {
+            nanos = Math.max(0, nanos);
+            buckets[63 - Long.numberOfLeadingZeros(nanos | 1)]++;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        private synchronized long total() {
+            return totalNanos;
+        }
+
+        private synchronized void write(DataOutputStream out) throws IOException {
+            out.writeLong(count);
+            out.writeLong(totalNanos);
+            out.writeLong(maxNanos);
+            for (long b : buckets) {
+                out.writeLong(b);
+            }
+        }
+
+        /**
+         * Adds the stats of a snapshot.
+         */
+        private synchronized void read(DataInputStream in) throws IOException {
+            count += in.readLong();
+            totalNanos += in.readLong();
+            maxNanos = Math.max(maxNanos, in.readLong());
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] += in.readLong();
+            }
+        }
+
+        /**
+         * @return upper bound of the bucket with the percentile (capped by the max value)
+         */
+        private long percentile(double p) {
+            long rank = (long) Math.ceil(p * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(maxNanos, i == 63 ? Long.MAX_VALUE : (1L << (i + 1)) - 1);
+                }
+            }
+            return 0;
+        }
+    }
+
+    private static class FlowStats {
+
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder wallNanos = new LongAdder();
+        private final LongAdder selfNanos = new LongAdder();
+
+        private void add(long wall, long self) {
+            calls.increment();
+            wallNanos.add(wall);
+            selfNanos.add(self);
+        }
+    }
+
+    private static class FlowFrame {
+
+        private final Object frameId;
+        private final String flow;
+        private final String fileName;
+        private final int callLine;
+        private final String callerFlow;
+        private final long startedAt;
+        private long childNanos;
+
+        private FlowFrame(Object frameId, String flow, String fileName, int callLine, String callerFlow, long startedAt) {
+            this.frameId = frameId;
+            this.flow = flow;
+            this.fileName = fileName;
+            this.callLine = callLine;
+            this.callerFlow = callerFlow;
+            this.startedAt = startedAt;
+        }
+    }
+
+    /**
+     * State of a VM thread, accessed only by the thread itself.
+     */
+    private static class ThreadProfile {
+
+        private final Deque<FlowFrame> frames = new ArrayDeque<>();
+        private String root;
+        private String stack;
+        private boolean stepStarted;
+        private long stepStartedAt;
+
+        /**
+         * @return the stack of the called flows, {@code flow} if no flows were called
+         */
+        private String stack(String flow) {
+            if (frames.isEmpty()) {
+                return root != null ? root : flow;
+            }
+
+            if (stack == null) {
+                StringBuilder sb = new StringBuilder();
+                if (root != null) {
+                    sb.append(root);
+                }
+                Iterator<FlowFrame> it = frames.descendingIterator();
+                while (it.hasNext()) {
+                    if (!sb.isEmpty()) {
+                        sb.append(';');
+                    }
+                    sb.append(it.next().flow);
+                }
+                stack = sb.toString();
+            }
+            return stack;
+        }
+    }
+}
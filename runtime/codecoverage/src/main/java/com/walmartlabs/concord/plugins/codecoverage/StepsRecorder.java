@@ -23,56 +23,105 @@ package com.walmartlabs.concord.plugins.codecoverage;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
-import com.fasterxml.jackson.dataformat.yaml.YAMLGenerator;
 import com.walmartlabs.concord.runtime.v2.runner.PersistenceService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.IOException;
 import java.nio.file.StandardOpenOption;
 import java.util.List;
-import java.util.stream.Stream;
 
+/**
+ * Counts executed steps in memory. The counters are saved in the process
+ * state only when the process suspends and are merged back on resume.
+ */
 @Singleton
 public class StepsRecorder {
 
     private static final Logger log = LoggerFactory.getLogger(StepsRecorder.class);
 
+    private static final String FILE_NAME = "code-coverage-steps.bin";
+
+    /**
+     * Steps saved by the previous versions, one record per executed step.
+     */
+    private static final String LEGACY_FILE_NAME = "code-coverage-steps.yaml";
+
     private static final TypeReference<List<StepInfo>> STEPS_TYPE = new TypeReference<>() {
     };
 
-    private static final String FILE_NAME = "code-coverage-steps.yaml";
-
     private final PersistenceService persistenceService;
-    private final ObjectMapper objectMapper;
+    private final CoverageCounters counters = new CoverageCounters();
 
     @Inject
     public StepsRecorder(PersistenceService persistenceService) {
         this.persistenceService = persistenceService;
-        this.objectMapper = new ObjectMapper(
-                new YAMLFactory()
-                        .disable(YAMLGenerator.Feature.WRITE_DOC_START_MARKER));
     }
 
-    public synchronized void record(StepInfo step) {
-        persistenceService.persistFile(FILE_NAME,
-                out -> objectMapper.writeValue(out, List.of(step)),
-                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    public void record(String fileName, int line, @Nullable String flow, @Nullable String flowCall) {
+        counters.increment(fileName, line, flow, flowCall);
+    }
+
+    /**
+     * @return the counter slot of the step, see {@link #record(int)}
+     */
+    public int slot(String fileName, int line, @Nullable String flow, @Nullable String flowCall) {
+        return counters.slot(fileName, line, flow, flowCall);
+    }
+
+    public void record(int slot) {
+        counters.increment(slot);
+    }
+
+    public CoverageCounters counters() {
+        return counters;
+    }
+
+    /**
+     * Saves the counters in the process state.
+     */
+    public void flush() {
+        persistenceService.persistFile(FILE_NAME, counters::write,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
     }
 
-    public List<StepInfo> list() {
-        var result = persistenceService.loadPersistedFile(FILE_NAME, in -> objectMapper.readValue(in, STEPS_TYPE));
-        if (result == null) {
-            return List.of();
+    /**
+     * Merges the counters saved before the process was suspended.
+     */
+    public void load() {
+        Boolean loaded = persistenceService.loadPersistedFile(FILE_NAME, in -> {
+            counters.read(in);
+            return true;
+        });
+
+        if (loaded == null) {
+            loadLegacy();
+        }
+    }
+
+    /**
+     * Merges the steps saved by a process suspended before the upgrade.
+     */
+    private void loadLegacy() {
+        List<StepInfo> steps = persistenceService.loadPersistedFile(LEGACY_FILE_NAME,
+                in -> new ObjectMapper(new YAMLFactory()).readValue(in, STEPS_TYPE));
+        if (steps == null) {
+            return;
+        }
+
+        for (StepInfo step : steps) {
+            counters.increment(step.fileName(), step.line(), step.processDefinitionId(), step.flowCallName());
         }
-        return result;
     }
 
-    public synchronized void cleanup() {
+    public void cleanup() {
+        counters.clear();
         try {
             persistenceService.deletePersistedFile(FILE_NAME);
+            persistenceService.deletePersistedFile(LEGACY_FILE_NAME);
         } catch (IOException e) {
             log.warn("Can't cleanup steps from state: {}", e.getMessage());
         }
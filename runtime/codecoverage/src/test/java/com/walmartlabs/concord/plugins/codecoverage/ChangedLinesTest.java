@@ -0,0 +1,100 @@
+package com.walmartlabs.concord.plugins.codecoverage;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangedLinesTest {
+
+    private static final String FLOW_V1 = "flows:\n  default:\n    - log: \"a\"\n    - log: \"b\"\n    - log: \"b\"\n";
+    private static final String FLOW_V2 = "flows:\n  default:\n    - log: \"a\"\n    - log: \"c\"\n    - log: \"b\"\n    - log: \"b\"  \n    - log: \"b\"\n";
+
+    @Test
+    public void testChangedLines(@TempDir Path baseline, @TempDir Path workDir) throws Exception {
+        zip(baseline.resolve(FlowsArchive.FLOWS_FILENAME), "concord.yml", FLOW_V1, "concord/same.concord.yml", FLOW_V1);
+
+        Files.writeString(workDir.resolve("concord.yml"), FLOW_V2);
+        Files.createDirectories(workDir.resolve("concord"));
+        Files.writeString(workDir.resolve("concord/same.concord.yml"), FLOW_V1);
+        Files.writeString(workDir.resolve("concord/new.concord.yml"), FLOW_V1);
+
+        ChangedLines changes = ChangedLines.compute(baseline, workDir,
+                List.of("concord.yml", "concord/same.concord.yml", "concord/new.concord.yml"));
+
+        assertEquals(Set.of("concord.yml", "concord/new.concord.yml"), changes.fileNames());
+
+        // the new step and the third "b" (trailing whitespace is ignored)
+        assertTrue(changes.isChanged("concord.yml", 4));
+        assertTrue(changes.isChanged("concord.yml", 7));
+        assertFalse(changes.isChanged("concord.yml", 3));
+        assertFalse(changes.isChanged("concord.yml", 6));
+
+        assertEquals(2 + 5, changes.size());
+    }
+
+    @Test
+    public void testRetain(@TempDir Path baseline, @TempDir Path workDir) throws Exception {
+        zip(baseline.resolve(FlowsArchive.FLOWS_FILENAME), "concord.yml", FLOW_V1);
+        Files.writeString(workDir.resolve("concord.yml"), FLOW_V2);
+
+        ChangedLines changes = ChangedLines.compute(baseline, workDir, List.of("concord.yml"));
+
+        String report = "TN:\nSF:concord.yml\nFN:2,default\nFNDA:1,default\n" +
+                "BRDA:3,0,0,1\nBRDA:4,0,0,1\nDA:3,1\nDA:4,1\nDA:5,1\nDA:6,1\nDA:7,0\nend_of_record\n" +
+                "TN:\nSF:concord/other.concord.yml\nDA:3,1\nend_of_record\n";
+
+        LcovData data = LcovData.parse(new BufferedReader(new StringReader(report)), Function.identity());
+        data.retain(changes);
+
+        StringWriter out = new StringWriter();
+        data.write(out, Function.identity());
+
+        assertEquals("TN:\nSF:concord.yml\nFNF:0\nFNH:0\n" +
+                "BRDA:4,0,0,1\nBRF:1\nBRH:1\n" +
+                "DA:4,1\nDA:7,0\nLF:2\nLH:1\nend_of_record\n", out.toString());
+    }
+
+    private static void zip(Path dst, String... nameAndContent) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(dst))) {
+            for (int i = 0; i < nameAndContent.length; i += 2) {
+                zip.putNextEntry(new ZipEntry(nameAndContent[i]));
+                zip.write(nameAndContent[i + 1].getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.walmartlabs.concord.plugins.codecoverage;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CoverageAggregatorTest {
+
+    private static final String FLOW_V1 = "flows:\n  default:\n    - log: \"hello\"\n";
+    private static final String FLOW_V2 = "flows:\n  default:\n    - log: \"bye\"\n";
+
+    @Test
+    public void test(@TempDir Path tmp) throws Exception {
+        for (int i = 0; i < 20; i++) {
+            input(tmp.resolve("inputs").resolve("p" + i), FLOW_V1, 3, "1", 1);
+        }
+        input(tmp.resolve("inputs").resolve("other"), FLOW_V2, 3, "-", 0);
+
+        List<Path> inputs = CoverageAggregator.findInputs(tmp.resolve("inputs"));
+        assertEquals(21, inputs.size());
+
+        Path out = tmp.resolve("out");
+        CoverageAggregator.Result result = new CoverageAggregator(out, 4).aggregate(inputs);
+        assertEquals(21, result.inputs());
+        assertEquals(2, result.sources());
+
+        String report = Files.readString(out.resolve(CoverageAggregator.COVERAGE_INFO_FILENAME));
+        assertTrue(report.contains("DA:3,20\n"), report);
+        assertTrue(report.contains("DA:3,0\n"), report);
+        assertTrue(report.contains("FNDA:20,default\n"), report);
+        assertTrue(report.contains("BRDA:3,0,0,20\n"), report);
+        assertTrue(report.contains("BRDA:3,0,0,-\n"), report);
+        assertEquals(2, report.split("end_of_record").length - 1);
+
+        try (var files = Files.walk(out.resolve(CoverageAggregator.FLOWS_DIR))) {
+            assertEquals(2, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    private static void input(Path dir, String flow, int line, String branch, int count) throws IOException {
+        Files.createDirectories(dir);
+
+        try (OutputStream out = Files.newOutputStream(dir.resolve(CoverageAggregator.FLOWS_FILENAME));
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry("concord.yml"));
+            zip.write(flow.getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+
+        Files.writeString(dir.resolve(CoverageAggregator.COVERAGE_INFO_FILENAME),
+                "TN:\n" +
+                "SF:concord.yml\n" +
+                "FN:2,default\n" +
+                "FNDA:" + count + ",default\n" +
+                "FNF:1\n" +
+                "FNH:" + count + "\n" +
+                "BRDA:" + line + ",0,0," + branch + "\n" +
+                "DA:" + line + "," + count + "\n" +
+                "LF:1\n" +
+                "LH:" + count + "\n" +
+                "end_of_record\n");
+    }
+}
@@ -0,0 +1,133 @@
+package com.walmartlabs.concord.plugins.codecoverage;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class CoverageCountersTest {
+
+    @Test
+    public void testSnapshotMerge() throws Exception {
+        CoverageCounters before = new CoverageCounters();
+        for (int i = 0; i < 1000; i++) {
+            before.increment("concord.yaml", 3, "default", null);
+            before.increment("concord.yaml", 5, "default", "inner");
+        }
+        before.increment("concord/inner.concord.yaml", 10, "inner", null);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        before.write(out);
+
+        CoverageCounters after = new CoverageCounters();
+        after.increment("concord/inner.concord.yaml", 10, "inner", null);
+        after.increment("concord/inner.concord.yaml", 12, "inner", null);
+        after.read(new ByteArrayInputStream(out.toByteArray()));
+
+        Map<StepInfo, Long> result = new HashMap<>();
+        after.forEach(result::put);
+
+        assertEquals(4, result.size());
+        assertEquals(1000, result.get(step("concord.yaml", 3, "default", null)));
+        assertEquals(1000, result.get(step("concord.yaml", 5, "default", "inner")));
+        assertEquals(2, result.get(step("concord/inner.concord.yaml", 10, "inner", null)));
+        assertEquals(1, result.get(step("concord/inner.concord.yaml", 12, "inner", null)));
+    }
+
+    @Test
+    public void testDictionaryOverflow() {
+        CoverageCounters counters = new CoverageCounters();
+        for (int i = 0; i < 20_000; i++) {
+            counters.increment("concord/flow" + i + ".concord.yaml", 1, null, null);
+        }
+
+        assertEquals(-1, counters.slot("concord/other.concord.yaml", 1, null, null));
+        assertEquals(16383, counters.size());
+    }
+
+    @Test
+    public void testConcurrentIncrements() throws Exception {
+        int threads = 8;
+        int iterations = 100_000;
+        int lines = 16;
+
+        CoverageCounters counters = new CoverageCounters();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    // new slots are created while other threads increment the existing ones
+                    for (int i = 0; i < iterations; i++) {
+                        int line = i % lines;
+                        counters.increment("concord.yaml", line, "default", null);
+                        counters.increment("concord.yaml", line, "flow" + thread, null);
+                    }
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            for (Future<?> f : results) {
+                f.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<StepInfo, Long> result = new HashMap<>();
+        counters.forEach(result::put);
+
+        assertEquals(lines + threads * lines, result.size());
+        for (int line = 0; line < lines; line++) {
+            assertEquals((long) threads * iterations / lines, result.get(step("concord.yaml", line, "default", null)));
+            for (int t = 0; t < threads; t++) {
+                assertEquals((long) iterations / lines, result.get(step("concord.yaml", line, "flow" + t, null)));
+            }
+        }
+    }
+
+    private static StepInfo step(String fileName, int line, String flow, String flowCall) {
+        return StepInfo.builder()
+                .fileName(fileName)
+                .line(line)
+                .processDefinitionId(flow)
+                .flowCallName(flowCall)
+                .build();
+    }
+}
@@ -0,0 +1,118 @@
+package com.walmartlabs.concord.plugins.codecoverage;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import com.walmartlabs.concord.runtime.v2.runner.PersistenceService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlowsArchiveTest {
+
+    private static final String FLOW = "flows:\n  default:\n    - log: \"a\"\n";
+    private static final String OTHER_FLOW = "flows:\n  other:\n    - log: \"b\"\n";
+
+    @Test
+    public void testSave(@TempDir Path workDir, @TempDir Path attachments) throws Exception {
+        Files.writeString(workDir.resolve("concord.yml"), FLOW);
+        Files.createDirectories(workDir.resolve("concord"));
+        Files.writeString(workDir.resolve("concord/other.concord.yml"), OTHER_FLOW);
+
+        FlowsArchive flows = new FlowsArchive(persistenceService(attachments), workDir);
+        flows.start(Set.of("concord.yml", "concord/other.concord.yml"));
+        flows.await();
+
+        Map<String, String> files = new HashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(attachments.resolve(FlowsArchive.FLOWS_FILENAME)))) {
+            ZipEntry e;
+            while ((e = zip.getNextEntry()) != null) {
+                files.put(e.getName(), new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals(Map.of("concord.yml", FLOW, "concord/other.concord.yml", OTHER_FLOW), files);
+
+        Map<String, String> manifest;
+        try (InputStream in = Files.newInputStream(attachments.resolve(FlowsArchive.MANIFEST_FILENAME))) {
+            manifest = FlowsArchive.parseManifest(in);
+        }
+        assertEquals(Map.of("concord.yml", sha256(FLOW), "concord/other.concord.yml", sha256(OTHER_FLOW)), manifest);
+    }
+
+    @Test
+    public void testBackgroundFailureIsRethrown(@TempDir Path workDir) throws Exception {
+        Files.writeString(workDir.resolve("concord.yml"), FLOW);
+
+        PersistenceService persistenceService = proxy((p, method, args) -> {
+            throw new IllegalStateException("disk is full");
+        });
+
+        FlowsArchive flows = new FlowsArchive(persistenceService, workDir);
+        flows.start(Set.of("concord.yml"));
+
+        RuntimeException e = assertThrows(RuntimeException.class, flows::await);
+        assertEquals("Can't save flows", e.getMessage());
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals("disk is full", e.getCause().getMessage());
+    }
+
+    private static String sha256(String s) throws Exception {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(hash);
+    }
+
+    /**
+     * Saves the persisted files into {@code dir}.
+     */
+    private static PersistenceService persistenceService(Path dir) {
+        return proxy((p, method, args) -> {
+            if (!method.getName().equals("persistFile")) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+
+            try (OutputStream out = Files.newOutputStream(dir.resolve((String) args[0]), (OpenOption[]) args[2])) {
+                ((PersistenceService.Writer) args[1]).write(out);
+            }
+            return null;
+        });
+    }
+
+    private static PersistenceService proxy(InvocationHandler handler) {
+        return (PersistenceService) Proxy.newProxyInstance(FlowsArchiveTest.class.getClassLoader(),
+                new Class<?>[]{PersistenceService.class}, handler);
+    }
+}
@@ -0,0 +1,52 @@
+package com.walmartlabs.concord.plugins.codecoverage;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LcovDataTest {
+
+    @Test
+    public void testFunctionNameWithComma() throws Exception {
+        String report = "TN:\n" +
+                "SF:concord.yml\n" +
+                "FN:2,my,flow\n" +
+                "FNDA:3,my,flow\n" +
+                "DA:3,3\n" +
+                "end_of_record\n";
+
+        LcovData data = LcovData.parse(new BufferedReader(new StringReader(report)), Function.identity());
+        data.merge(LcovData.parse(new BufferedReader(new StringReader(report)), Function.identity()));
+
+        StringWriter out = new StringWriter();
+        data.write(out, Function.identity());
+
+        assertTrue(out.toString().contains("FN:2,my,flow\n"), out.toString());
+        assertTrue(out.toString().contains("FNDA:6,my,flow\n"), out.toString());
+    }
+}
@@ -0,0 +1,102 @@
+package com.walmartlabs.concord.plugins.codecoverage;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import com.walmartlabs.concord.runtime.v2.ProjectLoaderV2;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LcovReportProducerTest {
+
+    private static final String FLOW = """
+            flows:
+              default:
+                - call: inner
+                  error:
+                    - log: "call failed"
+                - expr: "${1 + 1}"
+                  error:
+                    - log: "expr failed"
+                - script: js
+                  body: "1"
+                  error:
+                    - log: "script failed"
+              inner:
+                - log: "hello"
+            """;
+
+    @Test
+    public void testErrorBlocks(@TempDir Path tmp) throws Exception {
+        var file = tmp.resolve("concord.yml");
+        Files.writeString(file, FLOW);
+
+        var processDefinition = new ProjectLoaderV2(null).loadFromFile(file).getProjectDefinition();
+        var producer = new LcovReportProducer(processDefinition);
+        producer.onStep(StepInfo.builder().fileName("concord.yml").line(3).processDefinitionId("default").build());
+        producer.onStep(StepInfo.builder().fileName("concord.yml").line(14).flowCallName("inner").build());
+
+        var out = new ByteArrayOutputStream();
+        producer.produce(out);
+        var report = out.toString(StandardCharsets.UTF_8);
+
+        assertTrue(report.contains("DA:3,1\n"), report);
+        assertTrue(report.contains("DA:5,0\n"), report);
+        assertTrue(report.contains("DA:8,0\n"), report);
+        assertTrue(report.contains("DA:12,0\n"), report);
+        assertTrue(report.contains("FNDA:1,inner\n"), report);
+    }
+
+    @Test
+    public void testChangedLines(@TempDir Path baseline, @TempDir Path workDir) throws Exception {
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(baseline.resolve(FlowsArchive.FLOWS_FILENAME)))) {
+            zip.putNextEntry(new ZipEntry("concord.yml"));
+            zip.write("flows:\n  default:\n    - log: \"a\"\n    - log: \"b\"\n".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+
+        var file = workDir.resolve("concord.yml");
+        Files.writeString(file, "flows:\n  default:\n    - log: \"a\"\n    - log: \"c\"\n    - log: \"b\"\n");
+
+        var changes = ChangedLines.compute(baseline, workDir, List.of("concord.yml"));
+
+        var processDefinition = new ProjectLoaderV2(null).loadFromFile(file).getProjectDefinition();
+        var producer = new LcovReportProducer(processDefinition);
+        producer.onStep(StepInfo.builder().fileName("concord.yml").line(3).processDefinitionId("default").build());
+        producer.onStep(StepInfo.builder().fileName("concord.yml").line(4).build());
+
+        var out = new ByteArrayOutputStream();
+        producer.produce(out, changes);
+
+        assertEquals("TN:\nSF:concord.yml\nFNF:0\nFNH:0\nBRF:0\nBRH:0\n" +
+                "DA:4,1\nLF:1\nLH:1\nend_of_record\n", out.toString(StandardCharsets.UTF_8));
+    }
+}
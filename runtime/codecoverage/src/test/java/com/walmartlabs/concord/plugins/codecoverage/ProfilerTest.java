@@ -0,0 +1,137 @@
+package com.walmartlabs.concord.plugins.codecoverage;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ProfilerTest {
+
+    private static final long MS = 1_000_000;
+
+    @Test
+    public void test() throws Exception {
+        Profiler profiler = new Profiler();
+        String thread = "main";
+
+        // default: log (10 ms), call inner (inner: log 20 ms, log 30 ms), log (5 ms)
+        profiler.stepStarted(thread, 0);
+        profiler.stepEnded(thread, "concord.yml", 3, "default", 10 * MS);
+
+        profiler.flowEntered(thread, "frame-1", "inner", "default", "concord.yml", 4, 10 * MS);
+        profiler.stepStarted(thread, 11 * MS);
+        profiler.stepEnded(thread, "concord.yml", 8, "inner", 31 * MS);
+        profiler.stepStarted(thread, 31 * MS);
+        profiler.stepEnded(thread, "concord.yml", 9, "inner", 61 * MS);
+        profiler.frameExiting(thread, "frame-0", 62 * MS);
+        profiler.frameExiting(thread, "frame-1", 62 * MS);
+
+        profiler.stepStarted(thread, 62 * MS);
+        profiler.stepEnded(thread, "concord.yml", 5, "default", 67 * MS);
+
+        ByteArrayOutputStream collapsed = new ByteArrayOutputStream();
+        profiler.writeCollapsed(collapsed);
+        assertEquals("default;concord.yml:3 10000\n" +
+                "default;concord.yml:5 5000\n" +
+                "default;inner 2000\n" +
+                "default;inner;concord.yml:8 20000\n" +
+                "default;inner;concord.yml:9 30000\n", collapsed.toString(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream hotSpots = new ByteArrayOutputStream();
+        profiler.writeHotSpots(hotSpots);
+        String table = hotSpots.toString(StandardCharsets.UTF_8);
+
+        String[] rows = table.split("\n");
+        // the flow call line is the slowest one
+        assertTrue(rows[1].endsWith("concord.yml:4 (default)"), table);
+        assertTrue(rows[1].trim().startsWith("52.000"), table);
+        assertTrue(table.contains("52.000        2.000          1  inner"), table);
+    }
+
+    @Test
+    public void testSnapshotMerge() throws Exception {
+        Profiler before = new Profiler();
+        before.stepStarted("main", 0);
+        before.stepEnded("main", "concord.yml", 3, "default", 10 * MS);
+
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        before.write(snapshot);
+
+        Profiler after = new Profiler();
+        after.stepStarted("main", 0);
+        after.stepEnded("main", "concord.yml", 3, "default", 20 * MS);
+        after.read(new ByteArrayInputStream(snapshot.toByteArray()));
+
+        ByteArrayOutputStream collapsed = new ByteArrayOutputStream();
+        after.writeCollapsed(collapsed);
+        assertEquals("default;concord.yml:3 30000\n", collapsed.toString(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream hotSpots = new ByteArrayOutputStream();
+        after.writeHotSpots(hotSpots);
+        String[] rows = hotSpots.toString(StandardCharsets.UTF_8).split("\n");
+        assertTrue(rows[1].trim().startsWith("30.000          2     15.000"), rows[1]);
+    }
+
+    @Test
+    public void testLongStackSnapshot() throws Exception {
+        Profiler before = new Profiler();
+        for (int i = 0; i < 4000; i++) {
+            before.flowEntered("main", "frame-" + i, "flow-with-a-long-name-" + i, "default", "concord.yml", 3, 0);
+        }
+        before.stepStarted("main", 0);
+        before.stepEnded("main", "concord.yml", 10, "flow-with-a-long-name-3999", 10 * MS);
+
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        before.write(snapshot);
+        assertTrue(snapshot.size() > 65535);
+
+        Profiler after = new Profiler();
+        after.read(new ByteArrayInputStream(snapshot.toByteArray()));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        before.writeCollapsed(expected);
+        ByteArrayOutputStream collapsed = new ByteArrayOutputStream();
+        after.writeCollapsed(collapsed);
+        assertEquals(expected.toString(StandardCharsets.UTF_8), collapsed.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testFinishedThreadsAreRemoved() {
+        Profiler profiler = new Profiler();
+        for (int i = 0; i < 100; i++) {
+            String thread = "thread-" + i;
+            profiler.flowEntered(thread, "frame", "inner", "default", "concord.yml", 4, 0);
+            profiler.stepStarted(thread, 0);
+            profiler.stepEnded(thread, "concord.yml", 8, "inner", MS);
+            assertEquals(1, profiler.threadCount());
+
+            profiler.frameExiting(thread, "frame", 2 * MS);
+        }
+
+        assertEquals(0, profiler.threadCount());
+    }
+}
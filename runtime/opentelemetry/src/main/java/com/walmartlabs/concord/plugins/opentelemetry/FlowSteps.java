@@ -21,86 +21,274 @@ package com.walmartlabs.concord.plugins.opentelemetry;
  */
 
 import com.fasterxml.jackson.annotation.JsonCreator;
-import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.opentelemetry.sdk.trace.IdGenerator;
 
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serial;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Steps of a process, stored in chunks of preallocated arrays without
+ * a global lock. {@link #steps()} must be called when no steps are being
+ * recorded (e.g. after the process ends or suspends).
+ */
 public class FlowSteps implements Serializable {
 
     @Serial
     private static final long serialVersionUID = 1L;
 
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final long NOT_ENDED = 0;
+
+    /**
+     * Max number of distinct strings shared between the steps.
+     */
+    private static final int MAX_INTERNED_STRINGS = 4096;
+
     private final UUID instanceId;
     private final String flowName;
     private final long startedAt;
-    private final List<StepInfo> steps;
+    private final String traceId;
+    private final String rootSpanId;
+
+    /**
+     * Span of the parent process the process span is a child of, if the trace
+     * was propagated from the parent.
+     */
+    private final String parentSpanId;
+
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final Map<StepId, Integer> index = new ConcurrentHashMap<>();
+    private transient Object chunksLock = new Object();
+    private volatile Chunk[] chunks = new Chunk[16];
+
+    /**
+     * Step names, file names and flow names are repeated for most of the steps,
+     * the steps share the same instances of the strings.
+     */
+    private final Map<String, String> strings = new ConcurrentHashMap<>();
+
+    /**
+     * Suspensions of the process, replaced as a whole on change.
+     */
+    private volatile List<Suspension> suspensions = List.of();
 
-    @JsonIgnore
-    private final Map<StepId, Integer> stepIndex;
+    /**
+     * IDs of the steps started, ended or removed since the last call of
+     * {@link #trackChanges()}. {@code null} if changes are not tracked.
+     */
+    private volatile Set<StepId> changes;
+
+    public FlowSteps(UUID instanceId, String flowName, long startedAt, List<StepInfo> steps) {
+        this(instanceId, flowName, startedAt, null, null, steps);
+    }
+
+    public FlowSteps(UUID instanceId, String flowName, long startedAt, String traceId, String rootSpanId, List<StepInfo> steps) {
+        this(instanceId, flowName, startedAt, traceId, rootSpanId, null, steps);
+    }
 
     @JsonCreator
     public FlowSteps(@JsonProperty("instanceId") UUID instanceId,
                      @JsonProperty("flowName") String flowName,
                      @JsonProperty("startedAt") long startedAt,
+                     @JsonProperty("traceId") String traceId,
+                     @JsonProperty("rootSpanId") String rootSpanId,
+                     @JsonProperty("parentSpanId") String parentSpanId,
                      @JsonProperty("steps") List<StepInfo> steps) {
 
         this.instanceId = instanceId;
         this.flowName = flowName;
         this.startedAt = startedAt;
-        this.steps = new ArrayList<>(steps != null ? steps : List.of());
-        this.stepIndex = IntStream.range(0, this.steps.size())
-                .boxed()
-                .collect(Collectors.toMap(
-                        i -> this.steps.get(i).id(),
-                        i -> i
-                ));
+        this.traceId = traceId != null ? traceId : IdGenerator.random().generateTraceId();
+        this.rootSpanId = rootSpanId != null ? rootSpanId : IdGenerator.random().generateSpanId();
+        this.parentSpanId = parentSpanId;
+        if (steps != null) {
+            for (StepInfo s : steps) {
+                int slot = record(s.id(), s.name(), s.parentId(), s.filename(), s.lineNum(), s.flowName(), s.startedAt());
+                if (s.endedAt() != null) {
+                    end(slot, s.endedAt(), s.success());
+                }
+            }
+        }
     }
 
     public void onStepStart(StepId stepId, String name, StepId parentId,
                             String filename, int lineNum, String flowName) {
-        StepInfo step = StepInfo.builder()
-                .id(stepId)
-                .name(name)
-                .parentId(parentId)
-                .startedAt(System.currentTimeMillis())
-                .filename(filename)
-                .lineNum(lineNum)
-                .flowName(flowName)
-                .build();
+        record(stepId, name, parentId, filename, lineNum, flowName, System.currentTimeMillis());
+        onChange(stepId);
+    }
 
-        synchronized (this) {
-            steps.add(step);
-            stepIndex.put(stepId, steps.size() - 1);
+    public boolean onStepEnd(StepId stepId, boolean success) {
+        Integer slot = index.get(stepId);
+        if (slot == null || !end(slot, System.currentTimeMillis(), success)) {
+            return false;
         }
+
+        onChange(stepId);
+
+        return true;
     }
 
-    public boolean onStepEnd(StepId stepId, boolean success) {
-        synchronized (this) {
-            Integer index = stepIndex.get(stepId);
-            if (index == null) {
-                return false;
+    /**
+     * Marks the step as finished and removes it from the list of steps.
+     * Used when finished steps are exported as soon as they end.
+     *
+     * @return the finished step or {@code null} if the step wasn't started
+     */
+    @Nullable
+    public StepInfo completeStep(StepId stepId, boolean success) {
+        Integer slot = index.remove(stepId);
+        if (slot == null) {
+            return null;
+        }
+
+        end(slot, System.currentTimeMillis(), success);
+        StepInfo result = materialize(slot);
+        release(slot);
+        onChange(stepId);
+
+        return result;
+    }
+
+    /**
+     * Removes all finished steps from the list of steps.
+     * Used to keep the number of steps in memory bounded.
+     *
+     * @return the removed steps
+     */
+    public List<StepInfo> removeFinished() {
+        int count = nextSlot.get();
+        Chunk[] chunks = this.chunks;
+
+        List<StepInfo> result = new ArrayList<>();
+        for (int slot = 0; slot < count; slot++) {
+            Chunk chunk = chunk(chunks, slot);
+            if (chunk == null) {
+                slot |= CHUNK_MASK;
+                continue;
+            }
+
+            int i = slot & CHUNK_MASK;
+            StepId id = chunk.ids[i];
+            if (id == null || chunk.endedAt[i] == NOT_ENDED) {
+                continue;
             }
 
-            steps.set(index, StepInfo.builder().from(steps.get(index))
-                    .endedAt(System.currentTimeMillis())
-                    .success(success)
-                    .build());
+            if (index.remove(id, slot)) {
+                result.add(materialize(chunk, i));
+                release(slot);
+                onChange(id);
+            }
         }
+        return result;
+    }
 
-        return true;
+    @Nullable
+    public StepInfo get(StepId stepId) {
+        Integer slot = index.get(stepId);
+        if (slot == null) {
+            return null;
+        }
+
+        // the slot can be released concurrently
+        Chunk chunk = chunk(chunks, slot);
+        if (chunk == null || chunk.ids[slot & CHUNK_MASK] == null) {
+            return null;
+        }
+        return materialize(chunk, slot & CHUNK_MASK);
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Starts (or restarts) tracking of changed steps.
+     *
+     * @return IDs of the steps changed since the previous call or {@code null}
+     * if changes weren't tracked before
+     */
+    @Nullable
+    public synchronized List<StepId> trackChanges() {
+        Set<StepId> prev = changes;
+        changes = ConcurrentHashMap.newKeySet();
+        return prev != null ? new ArrayList<>(prev) : null;
+    }
+
+    /**
+     * Records the start of a suspension.
+     */
+    public synchronized void onSuspend(long now) {
+        List<Suspension> result = new ArrayList<>(suspensions);
+        result.add(Suspension.of(now, null));
+        suspensions = List.copyOf(result);
+    }
+
+    /**
+     * Records the end of the last suspension.
+     */
+    public synchronized void onResume(long now) {
+        if (suspensions.isEmpty()) {
+            return;
+        }
+
+        List<Suspension> result = new ArrayList<>(suspensions);
+        Suspension last = result.get(result.size() - 1);
+        if (last.resumedAt() == null) {
+            result.set(result.size() - 1, Suspension.of(last.suspendedAt(), now));
+            suspensions = List.copyOf(result);
+        }
+    }
+
+    @JsonProperty("suspensions")
+    public List<Suspension> suspensions() {
+        return suspensions;
+    }
+
+    @JsonProperty("suspensions")
+    synchronized void restoreSuspensions(List<Suspension> suspensions) {
+        this.suspensions = suspensions != null ? List.copyOf(suspensions) : List.of();
+    }
+
+    /**
+     * @return the time the process was suspended between the specified timestamps, in milliseconds
+     */
+    public long suspendedMillis(long from, long to) {
+        long result = 0;
+        for (Suspension s : suspensions) {
+            result += s.overlap(from, to);
+        }
+        return result;
     }
 
     @JsonProperty("steps")
     public List<StepInfo> steps() {
-        return steps;
+        int count = nextSlot.get();
+        Chunk[] chunks = this.chunks;
+
+        List<StepInfo> result = new ArrayList<>(index.size());
+        for (int slot = 0; slot < count; slot++) {
+            Chunk chunk = chunk(chunks, slot);
+            if (chunk == null) {
+                // all steps of the chunk were removed
+                slot |= CHUNK_MASK;
+                continue;
+            }
+
+            if (chunk.ids[slot & CHUNK_MASK] != null) {
+                result.add(materialize(chunk, slot & CHUNK_MASK));
+            }
+        }
+        return result;
     }
 
     @JsonProperty("instanceId")
@@ -117,4 +305,179 @@ public class FlowSteps implements Serializable {
     public String flowName() {
         return flowName;
     }
+
+    @JsonProperty("traceId")
+    public String traceId() {
+        return traceId;
+    }
+
+    @JsonProperty("rootSpanId")
+    public String rootSpanId() {
+        return rootSpanId;
+    }
+
+    @Nullable
+    @JsonProperty("parentSpanId")
+    public String parentSpanId() {
+        return parentSpanId;
+    }
+
+    private int record(StepId stepId, String name, StepId parentId,
+                       String filename, int lineNum, String flowName, long startedAt) {
+
+        int slot = nextSlot.getAndIncrement();
+        Chunk chunk = chunkForWrite(slot);
+        int i = slot & CHUNK_MASK;
+
+        chunk.names[i] = intern(name);
+        chunk.parentIds[i] = parentId;
+        chunk.filenames[i] = intern(filename);
+        chunk.lineNums[i] = lineNum;
+        chunk.flowNames[i] = intern(flowName);
+        chunk.startedAt[i] = startedAt;
+        chunk.ids[i] = stepId;
+
+        Integer prev = index.put(stepId, slot);
+        if (prev != null) {
+            // the same step started again, keep the latest one
+            release(prev);
+        }
+
+        return slot;
+    }
+
+    private String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+
+        String result = strings.get(s);
+        if (result != null) {
+            return result;
+        }
+
+        if (strings.size() >= MAX_INTERNED_STRINGS) {
+            return s;
+        }
+
+        result = strings.putIfAbsent(s, s);
+        return result != null ? result : s;
+    }
+
+    /**
+     * @return {@code false} if the slot was released concurrently
+     */
+    private boolean end(int slot, long endedAt, boolean success) {
+        Chunk chunk = chunk(chunks, slot);
+        if (chunk == null) {
+            return false;
+        }
+
+        int i = slot & CHUNK_MASK;
+        chunk.success[i] = success;
+        chunk.endedAt[i] = endedAt;
+        return true;
+    }
+
+    private StepInfo materialize(int slot) {
+        return materialize(chunk(chunks, slot), slot & CHUNK_MASK);
+    }
+
+    private static StepInfo materialize(Chunk chunk, int i) {
+        long endedAt = chunk.endedAt[i];
+        return StepInfo.builder()
+                .id(chunk.ids[i])
+                .name(chunk.names[i])
+                .parentId(chunk.parentIds[i])
+                .startedAt(chunk.startedAt[i])
+                .endedAt(endedAt != NOT_ENDED ? endedAt : null)
+                .filename(chunk.filenames[i])
+                .lineNum(chunk.lineNums[i])
+                .flowName(chunk.flowNames[i])
+                .success(chunk.success[i])
+                .build();
+    }
+
+    private void release(int slot) {
+        int chunkIndex = slot >>> CHUNK_BITS;
+        Chunk chunk = chunk(chunks, slot);
+        int i = slot & CHUNK_MASK;
+
+        chunk.ids[i] = null;
+        chunk.names[i] = null;
+        chunk.parentIds[i] = null;
+        chunk.filenames[i] = null;
+        chunk.flowNames[i] = null;
+
+        if (chunk.released.incrementAndGet() == CHUNK_SIZE) {
+            synchronized (chunksLock) {
+                Chunk[] copy = chunks.clone();
+                copy[chunkIndex] = null;
+                chunks = copy;
+            }
+        }
+    }
+
+    private Chunk chunkForWrite(int slot) {
+        int chunkIndex = slot >>> CHUNK_BITS;
+
+        Chunk[] current = chunks;
+        if (chunkIndex < current.length && current[chunkIndex] != null) {
+            return current[chunkIndex];
+        }
+
+        synchronized (chunksLock) {
+            current = chunks;
+            if (chunkIndex >= current.length) {
+                current = Arrays.copyOf(current, Math.max(current.length * 2, chunkIndex + 1));
+            } else if (current[chunkIndex] == null) {
+                current = current.clone();
+            } else {
+                return current[chunkIndex];
+            }
+
+            Chunk chunk = new Chunk();
+            current[chunkIndex] = chunk;
+            chunks = current;
+            return chunk;
+        }
+    }
+
+    private static Chunk chunk(Chunk[] chunks, int slot) {
+        int chunkIndex = slot >>> CHUNK_BITS;
+        if (chunkIndex >= chunks.length) {
+            return null;
+        }
+        return chunks[chunkIndex];
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        chunksLock = new Object();
+    }
+
+    private void onChange(StepId stepId) {
+        Set<StepId> c = changes;
+        if (c != null) {
+            c.add(stepId);
+        }
+    }
+
+    private static class Chunk implements Serializable {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final StepId[] ids = new StepId[CHUNK_SIZE];
+        private final String[] names = new String[CHUNK_SIZE];
+        private final StepId[] parentIds = new StepId[CHUNK_SIZE];
+        private final String[] filenames = new String[CHUNK_SIZE];
+        private final String[] flowNames = new String[CHUNK_SIZE];
+        private final int[] lineNums = new int[CHUNK_SIZE];
+        private final long[] startedAt = new long[CHUNK_SIZE];
+        private final long[] endedAt = new long[CHUNK_SIZE];
+        private final boolean[] success = new boolean[CHUNK_SIZE];
+        private final AtomicInteger released = new AtomicInteger();
+    }
 }
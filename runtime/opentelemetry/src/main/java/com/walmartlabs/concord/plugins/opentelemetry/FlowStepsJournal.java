@@ -0,0 +1,294 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import com.walmartlabs.concord.runtime.v2.runner.PersistenceService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Append-only binary journal of {@link FlowSteps}: a snapshot followed by
+ * the steps changed since the previous checkpoint. Records are replayed in
+ * order and the latest record of a step wins. A truncated tail (an interrupted
+ * checkpoint) is ignored and the next checkpoint rewrites the snapshot.
+ */
+public class FlowStepsJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(FlowStepsJournal.class);
+
+    public static final String FILENAME = "opentelemetry.journal";
+
+    private static final int MAGIC = 0x4f544a31; // OTJ1
+
+    private static final byte HEADER = 1;
+    private static final byte STEP = 2;
+    private static final byte REMOVE = 3;
+    private static final byte PARENT = 4;
+    private static final byte SUSPENSIONS = 5;
+
+    private final PersistenceService persistenceService;
+    private final long compactionThreshold;
+
+    private final StepCodec codec = new StepCodec();
+    private long size;
+    private long records;
+    private boolean truncated;
+
+    public FlowStepsJournal(PersistenceService persistenceService, long compactionThreshold) {
+        this.persistenceService = persistenceService;
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Replays the journal.
+     *
+     * @return restored steps or {@code null} if the journal doesn't exist
+     */
+    @Nullable
+    public FlowSteps load() {
+        FlowSteps result = persistenceService.loadPersistedFile(FILENAME, this::replay);
+        if (result != null) {
+            result.trackChanges();
+        }
+        return result;
+    }
+
+    /**
+     * Appends the steps changed since the previous checkpoint.
+     */
+    public void checkpoint(FlowSteps flowSteps) {
+        List<StepId> changes = flowSteps.trackChanges();
+        if (changes == null || truncated || shouldCompact(flowSteps)) {
+            writeSnapshot(flowSteps);
+            return;
+        }
+
+        if (changes.isEmpty() && flowSteps.suspensions().isEmpty()) {
+            return;
+        }
+
+        persistenceService.persistFile(FILENAME, out -> writeChanges(out, flowSteps, changes),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    void writeChanges(OutputStream out, FlowSteps flowSteps, List<StepId> changes) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+        for (StepId id : changes) {
+            StepInfo step = flowSteps.get(id);
+            if (step != null) {
+                writeStep(dos, step);
+            } else {
+                writeRemove(dos, id);
+            }
+            records++;
+        }
+        writeSuspensions(dos, flowSteps);
+        dos.flush();
+        size += dos.size();
+    }
+
+    private boolean shouldCompact(FlowSteps flowSteps) {
+        long stale = records - flowSteps.size();
+        return size >= compactionThreshold && stale > flowSteps.size();
+    }
+
+    private void writeSnapshot(FlowSteps flowSteps) {
+        persistenceService.persistFile(FILENAME, out -> writeSnapshot(out, flowSteps),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    void writeSnapshot(OutputStream out, FlowSteps flowSteps) throws IOException {
+        codec.reset();
+        records = 0;
+        truncated = false;
+
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+        dos.writeInt(MAGIC);
+        writeHeader(dos, flowSteps);
+        for (StepInfo step : flowSteps.steps()) {
+            writeStep(dos, step);
+            records++;
+        }
+        writeSuspensions(dos, flowSteps);
+        dos.flush();
+        size = dos.size();
+    }
+
+    FlowSteps replay(InputStream in) throws IOException {
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(in));
+        DataInputStream dis = new DataInputStream(counter);
+
+        if (dis.readInt() != MAGIC) {
+            throw new IOException("Invalid journal file: " + FILENAME);
+        }
+
+        codec.reset();
+        records = 0;
+
+        UUID instanceId = null;
+        String flowName = null;
+        long startedAt = 0;
+        String traceId = null;
+        String rootSpanId = null;
+        String parentSpanId = null;
+        List<Suspension> suspensions = List.of();
+        Map<StepId, StepInfo> steps = new LinkedHashMap<>();
+
+        long validSize = counter.count;
+        while (true) {
+            int type = dis.read();
+            if (type < 0) {
+                break;
+            }
+
+            try {
+                switch (type) {
+                    case HEADER -> {
+                        instanceId = new UUID(dis.readLong(), dis.readLong());
+                        flowName = StepCodec.readString(dis);
+                        startedAt = dis.readLong();
+                        traceId = StepCodec.readString(dis);
+                        rootSpanId = StepCodec.readString(dis);
+                    }
+                    case PARENT -> parentSpanId = StepCodec.readString(dis);
+                    case SUSPENSIONS -> suspensions = readSuspensions(dis);
+                    case STEP -> {
+                        StepInfo step = codec.readStep(dis);
+                        steps.put(step.id(), step);
+                        records++;
+                    }
+                    case REMOVE -> {
+                        steps.remove(StepCodec.readStepId(dis));
+                        records++;
+                    }
+                    default -> throw new IOException("Unknown journal record type: " + type);
+                }
+            } catch (EOFException e) {
+                // the last checkpoint was interrupted
+                log.warn("replay -> truncated record at {}, ignoring the rest of the journal", validSize);
+                truncated = true;
+                break;
+            }
+
+            validSize = counter.count;
+        }
+
+        if (instanceId == null) {
+            throw new IOException("Invalid journal file, header not found: " + FILENAME);
+        }
+
+        codec.restoreDictionary();
+        size = validSize;
+
+        FlowSteps result = new FlowSteps(instanceId, flowName, startedAt, traceId, rootSpanId, parentSpanId, new ArrayList<>(steps.values()));
+        result.restoreSuspensions(suspensions);
+        return result;
+    }
+
+    private static void writeHeader(DataOutputStream out, FlowSteps flowSteps) throws IOException {
+        out.writeByte(HEADER);
+        out.writeLong(flowSteps.instanceId().getMostSignificantBits());
+        out.writeLong(flowSteps.instanceId().getLeastSignificantBits());
+        StepCodec.writeString(out, flowSteps.flowName());
+        out.writeLong(flowSteps.startedAt());
+        StepCodec.writeString(out, flowSteps.traceId());
+        StepCodec.writeString(out, flowSteps.rootSpanId());
+
+        if (flowSteps.parentSpanId() != null) {
+            out.writeByte(PARENT);
+            StepCodec.writeString(out, flowSteps.parentSpanId());
+        }
+    }
+
+    private static void writeSuspensions(DataOutputStream out, FlowSteps flowSteps) throws IOException {
+        List<Suspension> suspensions = flowSteps.suspensions();
+        if (suspensions.isEmpty()) {
+            return;
+        }
+
+        out.writeByte(SUSPENSIONS);
+        out.writeInt(suspensions.size());
+        for (Suspension s : suspensions) {
+            out.writeLong(s.suspendedAt());
+            out.writeLong(s.resumedAt() != null ? s.resumedAt() : -1);
+        }
+    }
+
+    private static List<Suspension> readSuspensions(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Suspension> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long suspendedAt = in.readLong();
+            long resumedAt = in.readLong();
+            result.add(Suspension.of(suspendedAt, resumedAt >= 0 ? resumedAt : null));
+        }
+        return result;
+    }
+
+    private void writeStep(DataOutputStream out, StepInfo step) throws IOException {
+        out.writeByte(STEP);
+        codec.writeStep(out, step);
+    }
+
+    private static void writeRemove(DataOutputStream out, StepId id) throws IOException {
+        out.writeByte(REMOVE);
+        StepCodec.writeStepId(out, id);
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result >= 0) {
+                count++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int result = super.read(b, off, len);
+            if (result > 0) {
+                count += result;
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long result = super.skip(n);
+            count += result;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.sdk.resources.Resource;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Folds loop iterations over {@code threshold} (and their nested steps) into
+ * one aggregate span per loop step. All iterations are counted in the aggregate.
+ */
+public class LoopCollapser {
+
+    private static final byte VERSION = 1;
+
+    private final int threshold;
+    private final int keepSlowest;
+
+    private final Map<LoopKey, Loop> loops = new ConcurrentHashMap<>();
+
+    /**
+     * Started, but not yet finished folded steps.
+     */
+    private final Map<StepId, Folded> folded = new ConcurrentHashMap<>();
+
+    /**
+     * Started, but not yet finished iterations recorded in {@link FlowSteps}.
+     */
+    private final Map<StepId, Folded> recorded = new ConcurrentHashMap<>();
+
+    public LoopCollapser(int threshold, int keepSlowest) {
+        this.threshold = threshold;
+        this.keepSlowest = keepSlowest;
+    }
+
+    /**
+     * @return {@code true} if the step is folded and must not be recorded
+     */
+    public boolean onStepStart(StepId stepId, @Nullable StepId parentId, String name,
+                               String filename, int lineNum, String flowName, long now) {
+
+        if (parentId != null) {
+            Folded parent = folded.get(parentId);
+            if (parent != null) {
+                folded.put(stepId, new Folded(parent.loop, now, false));
+                return true;
+            }
+        }
+
+        if (stepId.loopIndex() == null) {
+            return false;
+        }
+
+        Loop loop = loops.computeIfAbsent(new LoopKey(stepId.correlationId(), parentId),
+                k -> new Loop(k, name, filename, lineNum, flowName));
+
+        if (loop.started.incrementAndGet() <= threshold) {
+            recorded.put(stepId, new Folded(loop, now, true));
+            return false;
+        }
+
+        folded.put(stepId, new Folded(loop, now, true));
+        return true;
+    }
+
+    /**
+     * @return duration of the folded step or {@code -1} if the step is not folded
+     */
+    public long onStepEnd(StepId stepId, boolean success, long now) {
+        Folded r = recorded.remove(stepId);
+        if (r != null) {
+            r.loop.onIteration(stepId.loopIndex(), r.startedAt, now, success, false, keepSlowest);
+            return -1;
+        }
+
+        Folded f = folded.remove(stepId);
+        if (f == null) {
+            return -1;
+        }
+
+        long duration = now - f.startedAt;
+        if (f.iteration) {
+            f.loop.onIteration(stepId.loopIndex(), f.startedAt, now, success, true, keepSlowest);
+        } else {
+            f.loop.onNestedStep();
+        }
+        return duration;
+    }
+
+    public boolean isFolded(StepId stepId) {
+        return folded.containsKey(stepId);
+    }
+
+    /**
+     * @return duration of the slowest iteration, unfinished folded iterations
+     * are counted up to {@code now}
+     */
+    public long maxDuration(long now) {
+        long result = 0;
+        for (Loop loop : loops.values()) {
+            result = Math.max(result, loop.maxDuration());
+        }
+        for (Folded f : folded.values()) {
+            if (f.iteration) {
+                result = Math.max(result, now - f.startedAt);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates the aggregate spans and the spans of the slowest folded iterations.
+     * Unfinished iterations are counted as failed.
+     */
+    public List<ConcordSpan> toSpans(FlowSteps flowSteps, Resource resource, long processEnds) {
+        for (StepId stepId : new ArrayList<>(recorded.keySet())) {
+            onStepEnd(stepId, false, processEnds);
+        }
+        for (StepId stepId : new ArrayList<>(folded.keySet())) {
+            onStepEnd(stepId, false, processEnds);
+        }
+
+        List<ConcordSpan> result = new ArrayList<>();
+        for (Loop loop : loops.values()) {
+            loop.toSpans(flowSteps, resource, result);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the state using the same binary encoding as the spilled steps
+     * (see {@link StepCodec}). Must not be called concurrently with the other methods.
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+        dos.writeByte(VERSION);
+        dos.writeInt(threshold);
+        dos.writeInt(keepSlowest);
+
+        List<Loop> list = new ArrayList<>(loops.values());
+        Map<Loop, Integer> refs = new IdentityHashMap<>();
+        dos.writeInt(list.size());
+        for (Loop loop : list) {
+            refs.put(loop, refs.size());
+            loop.write(dos);
+        }
+
+        writeStarted(dos, folded, refs);
+        writeStarted(dos, recorded, refs);
+        dos.flush();
+    }
+
+    public static LoopCollapser read(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+        int version = dis.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported loops state version: " + version);
+        }
+
+        LoopCollapser result = new LoopCollapser(dis.readInt(), dis.readInt());
+
+        int count = dis.readInt();
+        List<Loop> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Loop loop = Loop.read(dis);
+            list.add(loop);
+            result.loops.put(loop.key, loop);
+        }
+
+        readStarted(dis, result.folded, list);
+        readStarted(dis, result.recorded, list);
+        return result;
+    }
+
+    private static void writeStarted(DataOutputStream out, Map<StepId, Folded> steps, Map<Loop, Integer> refs) throws IOException {
+        out.writeInt(steps.size());
+        for (Map.Entry<StepId, Folded> e : steps.entrySet()) {
+            StepCodec.writeStepId(out, e.getKey());
+            out.writeInt(refs.get(e.getValue().loop));
+            out.writeLong(e.getValue().startedAt);
+            out.writeBoolean(e.getValue().iteration);
+        }
+    }
+
+    private static void readStarted(DataInputStream in, Map<StepId, Folded> steps, List<Loop> loops) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            StepId stepId = StepCodec.readStepId(in);
+            int ref = in.readInt();
+            if (ref < 0 || ref >= loops.size()) {
+                throw new IOException("Invalid loop reference: " + ref);
+            }
+            steps.put(stepId, new Folded(loops.get(ref), in.readLong(), in.readBoolean()));
+        }
+    }
+
+    private record LoopKey(UUID correlationId, @Nullable StepId parentId) {
+    }
+
+    private record Folded(Loop loop, long startedAt, boolean iteration) {
+    }
+
+    /**
+     * @param folded {@code false} if the iteration has its own span in {@link FlowSteps}
+     */
+    private record Iteration(int index, long startedAt, long endedAt, boolean success, boolean folded) implements Comparable<Iteration> {
+
+        long duration() {
+            return endedAt - startedAt;
+        }
+
+        @Override
+        public int compareTo(Iteration o) {
+            return Long.compare(duration(), o.duration());
+        }
+    }
+
+    private static class Loop {
+
+        private final LoopKey key;
+        private final String name;
+        private final String filename;
+        private final int lineNum;
+        private final String flowName;
+
+        private final AtomicInteger started = new AtomicInteger();
+
+        private long count;
+        private long failed;
+        private long nestedSteps;
+        private long minDuration = Long.MAX_VALUE;
+        private long maxDuration;
+        private long totalDuration;
+        private long firstStart = Long.MAX_VALUE;
+        private long lastEnd;
+        private final DurationHistogram histogram = new DurationHistogram();
+        private final PriorityQueue<Iteration> slowest = new PriorityQueue<>();
+
+        private Loop(LoopKey key, String name, String filename, int lineNum, String flowName) {
+            this.key = key;
+            this.name = name;
+            this.filename = filename;
+            this.lineNum = lineNum;
+            this.flowName = flowName;
+        }
+
+        private synchronized void onIteration(int index, long startedAt, long endedAt, boolean success, boolean folded, int keepSlowest) {
+            long duration = endedAt - startedAt;
+
+            count++;
+            if (!success) {
+                failed++;
+            }
+            minDuration = Math.min(minDuration, duration);
+            maxDuration = Math.max(maxDuration, duration);
+            totalDuration += duration;
+            firstStart = Math.min(firstStart, startedAt);
+            lastEnd = Math.max(lastEnd, endedAt);
+            histogram.add(duration);
+
+            if (keepSlowest > 0) {
+                slowest.add(new Iteration(index, startedAt, endedAt, success, folded));
+                if (slowest.size() > keepSlowest) {
+                    slowest.poll();
+                }
+            }
+        }
+
+        private synchronized long maxDuration() {
+            return maxDuration;
+        }
+
+        private synchronized void onNestedStep() {
+            nestedSteps++;
+        }
+
+        private synchronized void toSpans(FlowSteps flowSteps, Resource resource, List<ConcordSpan> result) {
+            if (count == 0) {
+                return;
+            }
+
+            String spanId = SpanIds.forLoop(key.correlationId(), key.parentId());
+
+            result.add(ConcordSpanBuilder.builder(flowSteps.traceId(), resource, spanId, name)
+                    .setParentSpanId(key.parentId() == null ? flowSteps.rootSpanId() : SpanIds.from(key.parentId()))
+                    .setStartTimestamp(firstStart, TimeUnit.MILLISECONDS)
+                    .setAttribute("filename", filename)
+                    .setAttribute("lineNum", lineNum)
+                    .setAttribute("flowName", flowName)
+                    .setAttribute("loop.iterations", count)
+                    .setAttribute("loop.failed", failed)
+                    .setAttribute("loop.nestedSteps", nestedSteps)
+                    .setAttribute("loop.durationMillis.min", minDuration)
+                    .setAttribute("loop.durationMillis.avg", totalDuration / count)
+                    .setAttribute("loop.durationMillis.max", maxDuration)
+                    .setAttribute("loop.durationMillis.p99", Math.min(histogram.percentile(0.99), maxDuration))
+                    .setStatus(failed == 0 ? StatusCode.OK : StatusCode.ERROR)
+                    .end(lastEnd)
+                    .build());
+
+            for (Iteration i : slowest) {
+                if (!i.folded()) {
+                    continue;
+                }
+
+                StepId stepId = StepId.from(key.correlationId(), i.index());
+                result.add(ConcordSpanBuilder.builder(flowSteps.traceId(), resource, SpanIds.from(stepId), name)
+                        .setParentSpanId(spanId)
+                        .setStartTimestamp(i.startedAt(), TimeUnit.MILLISECONDS)
+                        .setAttribute("filename", filename)
+                        .setAttribute("lineNum", lineNum)
+                        .setAttribute("flowName", flowName)
+                        .setAttribute("loop.index", i.index())
+                        .setStatus(i.success() ? StatusCode.OK : StatusCode.ERROR)
+                        .end(i.endedAt())
+                        .build());
+            }
+        }
+
+        private synchronized void write(DataOutputStream out) throws IOException {
+            out.writeLong(key.correlationId().getMostSignificantBits());
+            out.writeLong(key.correlationId().getLeastSignificantBits());
+            out.writeBoolean(key.parentId() != null);
+            if (key.parentId() != null) {
+                StepCodec.writeStepId(out, key.parentId());
+            }
+            StepCodec.writeString(out, name);
+            StepCodec.writeString(out, filename);
+            out.writeInt(lineNum);
+            StepCodec.writeString(out, flowName);
+
+            out.writeInt(started.get());
+            out.writeLong(count);
+            out.writeLong(failed);
+            out.writeLong(nestedSteps);
+            out.writeLong(minDuration);
+            out.writeLong(maxDuration);
+            out.writeLong(totalDuration);
+            out.writeLong(firstStart);
+            out.writeLong(lastEnd);
+            histogram.write(out);
+
+            out.writeInt(slowest.size());
+            for (Iteration i : slowest) {
+                out.writeInt(i.index());
+                out.writeLong(i.startedAt());
+                out.writeLong(i.endedAt());
+                out.writeBoolean(i.success());
+                out.writeBoolean(i.folded());
+            }
+        }
+
+        private static Loop read(DataInputStream in) throws IOException {
+            UUID correlationId = new UUID(in.readLong(), in.readLong());
+            StepId parentId = in.readBoolean() ? StepCodec.readStepId(in) : null;
+            Loop loop = new Loop(new LoopKey(correlationId, parentId),
+                    StepCodec.readString(in), StepCodec.readString(in), in.readInt(), StepCodec.readString(in));
+
+            loop.started.set(in.readInt());
+            loop.count = in.readLong();
+            loop.failed = in.readLong();
+            loop.nestedSteps = in.readLong();
+            loop.minDuration = in.readLong();
+            loop.maxDuration = in.readLong();
+            loop.totalDuration = in.readLong();
+            loop.firstStart = in.readLong();
+            loop.lastEnd = in.readLong();
+            loop.histogram.read(in);
+
+            int slowest = in.readInt();
+            for (int i = 0; i < slowest; i++) {
+                loop.slowest.add(new Iteration(in.readInt(), in.readLong(), in.readLong(), in.readBoolean(), in.readBoolean()));
+            }
+            return loop;
+        }
+    }
+
+    /**
+     * Log-linear histogram of durations: exact up to 128 ms, then 64 buckets
+     * per power of two (~1.5% error).
+     */
+    static class DurationHistogram {
+
+        private static final int LINEAR = 128;
+        private static final int SUB_BITS = 6;
+        private static final int LINEAR_BITS = 7;
+
+        private long[] counts = new long[LINEAR];
+        private long total;
+
+        void add(long value) {
+            int i = index(Math.max(value, 0));
+            if (i >= counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(i + 1, counts.length * 2));
+            }
+            counts[i]++;
+            total++;
+        }
+
+        /**
+         * @return upper bound of the bucket containing the percentile
+         */
+        long percentile(double p) {
+            long rank = (long) Math.ceil(p * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return upperBound(i);
+                }
+            }
+            return 0;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(total);
+            out.writeInt(counts.length);
+            for (long c : counts) {
+                out.writeLong(c);
+            }
+        }
+
+        void read(DataInputStream in) throws IOException {
+            total = in.readLong();
+            counts = new long[in.readInt()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = in.readLong();
+            }
+        }
+
+        static int index(long value) {
+            if (value < LINEAR) {
+                return (int) value;
+            }
+            int magnitude = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (magnitude - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+            return LINEAR + ((magnitude - LINEAR_BITS) << SUB_BITS) + sub;
+        }
+
+        static long upperBound(int index) {
+            if (index < LINEAR) {
+                return index;
+            }
+            int i = index - LINEAR;
+            int magnitude = (i >>> SUB_BITS) + LINEAR_BITS;
+            long sub = i & ((1 << SUB_BITS) - 1);
+            return ((1L << SUB_BITS | sub) + 1 << (magnitude - SUB_BITS)) - 1;
+        }
+    }
+}
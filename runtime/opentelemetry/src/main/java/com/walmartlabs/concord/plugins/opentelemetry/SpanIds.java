@@ -0,0 +1,78 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import io.opentelemetry.api.trace.SpanId;
+
+import javax.annotation.Nullable;
+import java.util.UUID;
+
+/**
+ * Derives span IDs from {@link StepId}s, so the ID of a step's span is known
+ * without keeping a per-process mapping (e.g. when a child span is exported
+ * before its parent or after the process was resumed).
+ */
+public final class SpanIds {
+
+    private static final long LOOP_SALT = 0x6c6f6f70L;
+
+    public static String from(StepId stepId) {
+        return toSpanId(hash(stepId));
+    }
+
+    /**
+     * @return ID of the aggregate span of the loop step's collapsed iterations
+     */
+    public static String forLoop(UUID correlationId, @Nullable StepId parentId) {
+        long h = mix(hash(StepId.from(correlationId)) ^ LOOP_SALT);
+        if (parentId != null) {
+            h = mix(h ^ hash(parentId));
+        }
+        return toSpanId(h);
+    }
+
+    private static long hash(StepId stepId) {
+        long hi = stepId.correlationId().getMostSignificantBits();
+        long lo = stepId.correlationId().getLeastSignificantBits();
+        Integer loopIndex = stepId.loopIndex();
+
+        long h = mix(hi ^ mix(lo));
+        if (loopIndex != null) {
+            h = mix(h ^ (loopIndex + 1L));
+        }
+        return h;
+    }
+
+    private static String toSpanId(long h) {
+        // all-zero span IDs are invalid
+        return SpanId.fromLong(h == 0 ? 1 : h);
+    }
+
+    private static long mix(long z) {
+        // splitmix64 finalizer
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private SpanIds() {
+    }
+}
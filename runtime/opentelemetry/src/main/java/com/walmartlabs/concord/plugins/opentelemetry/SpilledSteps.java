@@ -0,0 +1,131 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import com.walmartlabs.concord.runtime.v2.runner.PersistenceService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Moves the finished steps to a file in the process state when there are
+ * too many steps in memory. Each batch has its own {@link StepCodec}
+ * dictionary, so batches can be appended after the process is resumed.
+ */
+public class SpilledSteps {
+
+    private static final Logger log = LoggerFactory.getLogger(SpilledSteps.class);
+
+    public static final String FILENAME = "opentelemetry-spill.bin";
+
+    private static final byte BATCH = 1;
+
+    private final PersistenceService persistenceService;
+    private final int maxInMemorySteps;
+    private final StepCodec codec = new StepCodec();
+
+    public SpilledSteps(PersistenceService persistenceService, int maxInMemorySteps) {
+        this.persistenceService = persistenceService;
+        this.maxInMemorySteps = maxInMemorySteps;
+    }
+
+    /**
+     * Spills the finished steps if there are too many steps in memory.
+     */
+    public void onStepEnd(FlowSteps flowSteps) {
+        if (flowSteps.size() <= maxInMemorySteps) {
+            return;
+        }
+
+        synchronized (this) {
+            if (flowSteps.size() <= maxInMemorySteps) {
+                return;
+            }
+
+            List<StepInfo> steps = flowSteps.removeFinished();
+            if (steps.isEmpty()) {
+                return;
+            }
+
+            StepAggregator.sortByEnd(steps, System.currentTimeMillis());
+            persistenceService.persistFile(FILENAME, out -> writeBatch(out, steps),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+            log.debug("onStepEnd -> spilled {} steps", steps.size());
+        }
+    }
+
+    /**
+     * Reads the spilled steps in the order they were spilled.
+     */
+    public void forEach(Consumer<StepInfo> consumer) {
+        persistenceService.loadPersistedFile(FILENAME, in -> {
+            readBatches(in, consumer);
+            return null;
+        });
+    }
+
+    public void cleanup() {
+        try {
+            persistenceService.deletePersistedFile(FILENAME);
+        } catch (IOException e) {
+            log.warn("cleanup -> error while removing {}: {}", FILENAME, e.getMessage());
+        }
+    }
+
+    synchronized void writeBatch(OutputStream out, List<StepInfo> steps) throws IOException {
+        codec.reset();
+
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+        dos.writeByte(BATCH);
+        dos.writeInt(steps.size());
+        for (StepInfo s : steps) {
+            codec.writeStep(dos, s);
+        }
+        dos.flush();
+    }
+
+    static void readBatches(InputStream in, Consumer<StepInfo> consumer) throws IOException {
+        StepCodec codec = new StepCodec();
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+
+        while (true) {
+            int type = dis.read();
+            if (type < 0) {
+                break;
+            }
+
+            if (type != BATCH) {
+                throw new IOException("Invalid spill file record type: " + type);
+            }
+
+            codec.reset();
+            int count = dis.readInt();
+            for (int i = 0; i < count; i++) {
+                consumer.accept(codec.readStep(dis));
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.walmartlabs.concord.runtime.v2.runner.PersistenceService;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps a {@link SpanExporter}. Spans that can't be exported are appended
+ * to a spool file (JSON lines) in the process state.
+ * <p>
+ * {@link #shutdown()} doesn't close the delegate: the span processor waits
+ * only a few seconds for it. After the processor is closed the caller must
+ * either {@link #deliverSpooled()} or {@link #close()} the exporter.
+ */
+public class SpoolingSpanExporter implements SpanExporter {
+
+    private static final Logger log = LoggerFactory.getLogger(SpoolingSpanExporter.class);
+
+    public static final String SPOOL_FILENAME = "opentelemetry-spool.jsonl";
+
+    private static final TypeReference<Map<String, Object>> SPAN_TYPE = new TypeReference<>() {
+    };
+
+    private static final int RETRY_BATCH_SIZE = 512;
+    private static final long INITIAL_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+
+    private final SpanExporter delegate;
+    private final Storage storage;
+    private final ObjectMapper objectMapper;
+    private final Resource resource;
+    private final long retryBudgetMillis;
+
+    public SpoolingSpanExporter(SpanExporter delegate, Storage storage, ObjectMapper objectMapper,
+                                Resource resource, long retryBudgetMillis) {
+
+        this.delegate = delegate;
+        this.storage = storage;
+        this.objectMapper = objectMapper;
+        this.resource = resource;
+        this.retryBudgetMillis = retryBudgetMillis;
+    }
+
+    @Override
+    public CompletableResultCode export(Collection<SpanData> spans) {
+        CompletableResultCode exported = delegate.export(spans);
+
+        CompletableResultCode result = new CompletableResultCode();
+        exported.whenComplete(() -> {
+            if (exported.isSuccess()) {
+                result.succeed();
+                return;
+            }
+
+            try {
+                spool(spans);
+                result.succeed();
+            } catch (Exception e) {
+                log.error("export -> can't spool {} spans: {}", spans.size(), e.getMessage());
+                result.fail();
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public CompletableResultCode flush() {
+        return delegate.flush();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        return CompletableResultCode.ofSuccess();
+    }
+
+    /**
+     * Closes the delegate, the spooled spans are kept in the process state
+     * (e.g. when the process suspends).
+     */
+    @Override
+    public void close() {
+        delegate.shutdown().join(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Sends the spooled spans again with exponential backoff on the calling
+     * thread until the retry budget is exhausted, then closes the delegate.
+     * Undelivered spans are kept as a process attachment.
+     */
+    public void deliverSpooled() {
+        try {
+            retrySpooled();
+        } finally {
+            close();
+        }
+    }
+
+    private synchronized void spool(Collection<SpanData> spans) throws IOException {
+        storage.append(serialize(spans));
+
+        log.warn("export -> {} spans can't be exported, saved in '{}'", spans.size(), SPOOL_FILENAME);
+    }
+
+    private byte[] serialize(Collection<SpanData> spans) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (SpanData span : spans) {
+            out.write(objectMapper.writeValueAsBytes(toMap(span)));
+            out.write('\n');
+        }
+        return out.toByteArray();
+    }
+
+    private synchronized void retrySpooled() {
+        byte[] data = storage.read();
+        if (data == null || data.length == 0) {
+            return;
+        }
+
+        List<SpanData> spans;
+        try {
+            spans = parse(data);
+        } catch (IOException e) {
+            log.error("deliverSpooled -> can't read '{}': {}", SPOOL_FILENAME, e.getMessage());
+            return;
+        }
+
+        long deadline = System.currentTimeMillis() + retryBudgetMillis;
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        int delivered = 0;
+
+        while (delivered < spans.size()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+
+            List<SpanData> batch = spans.subList(delivered, Math.min(delivered + RETRY_BATCH_SIZE, spans.size()));
+            if (delegate.export(batch).join(remaining, TimeUnit.MILLISECONDS).isSuccess()) {
+                delivered += batch.size();
+                backoff = INITIAL_BACKOFF_MILLIS;
+                continue;
+            }
+
+            try {
+                Thread.sleep(Math.min(backoff, Math.max(deadline - System.currentTimeMillis(), 0)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+
+        if (delivered == spans.size()) {
+            storage.delete();
+            log.info("deliverSpooled -> {} spooled spans delivered", delivered);
+            return;
+        }
+
+        try {
+            // the old file is replaced only after the undelivered spans are serialized
+            storage.replace(serialize(spans.subList(delivered, spans.size())));
+        } catch (IOException e) {
+            log.error("deliverSpooled -> can't save undelivered spans: {}", e.getMessage());
+            return;
+        }
+
+        log.warn("deliverSpooled -> {} spans were not delivered in {} ms, kept as process attachment '{}'",
+                spans.size() - delivered, retryBudgetMillis, SPOOL_FILENAME);
+    }
+
+    private List<SpanData> parse(byte[] data) throws IOException {
+        List<SpanData> result = new ArrayList<>();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            result.add(fromMap(objectMapper.readValue(line, SPAN_TYPE)));
+        }
+
+        return result;
+    }
+
+    private static Map<String, Object> toMap(SpanData span) {
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        span.getAttributes().forEach((k, v) -> attributes.put(k.getKey(), v));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("traceId", span.getTraceId());
+        result.put("spanId", span.getSpanId());
+        if (span.getParentSpanContext().isValid()) {
+            result.put("parentSpanId", span.getParentSpanId());
+        }
+        result.put("name", span.getName());
+        result.put("start", span.getStartEpochNanos());
+        result.put("end", span.getEndEpochNanos());
+        result.put("status", span.getStatus().getStatusCode().name());
+        result.put("attributes", attributes);
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private SpanData fromMap(Map<String, Object> m) {
+        ConcordSpanBuilder b = ConcordSpanBuilder.builder((String) m.get("traceId"), resource, (String) m.get("spanId"), (String) m.get("name"))
+                .setParentSpanId((String) m.get("parentSpanId"))
+                .setStartTimestamp(((Number) m.get("start")).longValue(), TimeUnit.NANOSECONDS)
+                .setStatus(StatusCode.valueOf((String) m.get("status")))
+                .end(((Number) m.get("end")).longValue(), TimeUnit.NANOSECONDS);
+
+        Map<String, Object> attributes = (Map<String, Object>) m.getOrDefault("attributes", Map.of());
+        for (Map.Entry<String, Object> e : attributes.entrySet()) {
+            Object v = e.getValue();
+            if (v instanceof String str) {
+                b.setAttribute(e.getKey(), str);
+            } else if (v instanceof Integer || v instanceof Long) {
+                b.setAttribute(e.getKey(), ((Number) v).longValue());
+            } else if (v instanceof Number n) {
+                b.setAttribute(AttributeKey.doubleKey(e.getKey()), n.doubleValue());
+            } else if (v instanceof Boolean bool) {
+                b.setAttribute(AttributeKey.booleanKey(e.getKey()), bool);
+            }
+        }
+
+        return b.build().toSpanData();
+    }
+
+    public interface Storage {
+
+        void append(byte[] data);
+
+        void replace(byte[] data);
+
+        @Nullable
+        byte[] read();
+
+        void delete();
+
+        static Storage of(PersistenceService persistenceService, String name) {
+            return new Storage() {
+                @Override
+                public void append(byte[] data) {
+                    persistenceService.persistFile(name, out -> out.write(data), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+
+                @Override
+                public void replace(byte[] data) {
+                    persistenceService.persistFile(name, out -> out.write(data));
+                }
+
+                @Override
+                public byte[] read() {
+                    return persistenceService.loadPersistedFile(name, InputStream::readAllBytes);
+                }
+
+                @Override
+                public void delete() {
+                    try {
+                        persistenceService.deletePersistedFile(name);
+                    } catch (IOException e) {
+                        log.warn("Can't delete '{}': {}", name, e.getMessage());
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import javax.annotation.Nullable;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Replaces the spans of steps shorter than the configured duration with
+ * aggregated attributes of the closest exported parent (or the process span).
+ * <p>
+ * Steps must be passed in the order they end, so the children are processed
+ * before their parents.
+ */
+public class StepAggregator {
+
+    private final long minDurationMillis;
+    private final Map<StepId, Aggregate> pending = new ConcurrentHashMap<>();
+    private final Aggregate root = new Aggregate();
+
+    public StepAggregator(long minDurationMillis) {
+        this.minDurationMillis = minDurationMillis;
+    }
+
+    public boolean isEnabled() {
+        return minDurationMillis > 0;
+    }
+
+    /**
+     * @return {@code true} if the step should be exported as a separate span
+     */
+    public boolean accept(StepInfo step, long processEnds) {
+        if (!isEnabled()) {
+            return true;
+        }
+
+        long duration = endedAt(step, processEnds) - step.startedAt();
+        if (duration >= minDurationMillis) {
+            return true;
+        }
+
+        Aggregate children = pending.remove(step.id());
+        Aggregate parent = step.parentId() != null ? pending.computeIfAbsent(step.parentId(), k -> new Aggregate()) : root;
+        parent.add(duration, step.success(), children);
+
+        return false;
+    }
+
+    /**
+     * @return aggregated attributes of the step's children or {@code null}
+     */
+    @Nullable
+    public Aggregate take(StepId stepId) {
+        if (!isEnabled()) {
+            return null;
+        }
+        return pending.remove(stepId);
+    }
+
+    @Nullable
+    public Aggregate root() {
+        return root.count > 0 ? root : null;
+    }
+
+    /**
+     * Sorts the steps in the order they end: children before parents.
+     */
+    public static void sortByEnd(List<StepInfo> steps, long processEnds) {
+        steps.sort(Comparator.<StepInfo>comparingLong(s -> endedAt(s, processEnds))
+                .thenComparing(Comparator.<StepInfo>comparingLong(StepInfo::startedAt).reversed()));
+    }
+
+    private static long endedAt(StepInfo step, long processEnds) {
+        return step.endedAt() != null ? step.endedAt() : processEnds;
+    }
+
+    public static class Aggregate {
+
+        private long count;
+        private long durationMillis;
+        private long failed;
+
+        private synchronized void add(long durationMillis, boolean success, @Nullable Aggregate children) {
+            this.count++;
+            this.durationMillis += durationMillis;
+            if (!success) {
+                this.failed++;
+            }
+
+            if (children != null) {
+                this.count += children.count;
+                this.durationMillis += children.durationMillis;
+                this.failed += children.failed;
+            }
+        }
+
+        public synchronized long count() {
+            return count;
+        }
+
+        public synchronized long durationMillis() {
+            return durationMillis;
+        }
+
+        public synchronized long failed() {
+            return failed;
+        }
+
+        public synchronized ConcordSpanBuilder applyTo(ConcordSpanBuilder span) {
+            return span.setAttribute("aggregated.steps", count)
+                    .setAttribute("aggregated.durationMillis", durationMillis)
+                    .setAttribute("aggregated.failed", failed);
+        }
+    }
+}
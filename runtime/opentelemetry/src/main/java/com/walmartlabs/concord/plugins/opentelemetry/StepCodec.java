@@ -0,0 +1,172 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Binary encoding of {@link StepInfo}. File names and flow names are
+ * dictionary-encoded: the first occurrence of a string is written inline,
+ * the following ones as references. The decoder must read the steps in
+ * the order they were written.
+ */
+final class StepCodec {
+
+    private static final int NULL_REF = -1;
+
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+
+    /**
+     * Starts a new dictionary.
+     */
+    void reset() {
+        dictionary.clear();
+        strings.clear();
+    }
+
+    /**
+     * Continues writing with the dictionary restored by the decoder.
+     */
+    void restoreDictionary() {
+        dictionary.clear();
+        for (int i = 0; i < strings.size(); i++) {
+            dictionary.put(strings.get(i), i);
+        }
+    }
+
+    void writeStep(DataOutputStream out, StepInfo step) throws IOException {
+        writeStepId(out, step.id());
+        writeString(out, step.name());
+        out.writeBoolean(step.parentId() != null);
+        if (step.parentId() != null) {
+            writeStepId(out, step.parentId());
+        }
+        out.writeLong(step.startedAt());
+        out.writeLong(step.endedAt() != null ? step.endedAt() : -1);
+        writeRef(out, step.filename());
+        out.writeInt(step.lineNum());
+        writeRef(out, step.flowName());
+        out.writeBoolean(step.success());
+    }
+
+    StepInfo readStep(DataInputStream in) throws IOException {
+        ImmutableStepInfo.Builder b = StepInfo.builder()
+                .id(readStepId(in))
+                .name(readString(in));
+        if (in.readBoolean()) {
+            b.parentId(readStepId(in));
+        }
+        b.startedAt(in.readLong());
+        long endedAt = in.readLong();
+        if (endedAt >= 0) {
+            b.endedAt(endedAt);
+        }
+        return b.filename(readRef(in))
+                .lineNum(in.readInt())
+                .flowName(readRef(in))
+                .success(in.readBoolean())
+                .build();
+    }
+
+    static void writeStepId(DataOutputStream out, StepId id) throws IOException {
+        out.writeLong(id.correlationId().getMostSignificantBits());
+        out.writeLong(id.correlationId().getLeastSignificantBits());
+        out.writeInt(id.loopIndex() != null ? id.loopIndex() : -1);
+    }
+
+    static StepId readStepId(DataInputStream in) throws IOException {
+        UUID correlationId = new UUID(in.readLong(), in.readLong());
+        int loopIndex = in.readInt();
+        return StepId.from(correlationId, loopIndex >= 0 ? loopIndex : null);
+    }
+
+    /**
+     * Writes a dictionary reference. The first occurrence of a string is
+     * followed by the string itself.
+     */
+    private void writeRef(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(NULL_REF);
+            return;
+        }
+
+        Integer ref = dictionary.get(s);
+        if (ref != null) {
+            out.writeInt(ref);
+            return;
+        }
+
+        ref = dictionary.size();
+        dictionary.put(s, ref);
+        out.writeInt(ref);
+        writeString(out, s);
+    }
+
+    private String readRef(DataInputStream in) throws IOException {
+        int ref = in.readInt();
+        if (ref == NULL_REF) {
+            return null;
+        }
+
+        if (ref < strings.size()) {
+            return strings.get(ref);
+        }
+
+        if (ref != strings.size()) {
+            throw new IOException("Invalid string reference: " + ref);
+        }
+
+        String s = readString(in);
+        strings.add(s);
+        return s;
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
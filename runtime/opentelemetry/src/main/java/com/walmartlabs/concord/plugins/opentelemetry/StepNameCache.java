@@ -0,0 +1,75 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import com.walmartlabs.concord.runtime.v2.model.Step;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-process cache of step names that don't contain expressions.
+ * Steps are the same instances for the whole process, so they are used as keys.
+ */
+public class StepNameCache {
+
+    private final Map<Step, String> names = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @Nullable
+    public String get(Step step) {
+        String result = names.get(step);
+        if (result != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return result;
+    }
+
+    public String put(Step step, String name) {
+        names.put(step, name);
+        return name;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public static boolean isStatic(String name) {
+        return !name.contains("${");
+    }
+
+    @Override
+    public String toString() {
+        long h = hits();
+        long total = h + misses();
+        long rate = total > 0 ? h * 100 / total : 0;
+        return "hits: " + h + ", misses: " + (total - h) + ", hit rate: " + rate + "%";
+    }
+}
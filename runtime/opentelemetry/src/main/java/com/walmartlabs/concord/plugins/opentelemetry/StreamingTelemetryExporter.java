@@ -0,0 +1,135 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports finished steps while the process is running. Spans are queued in
+ * a long-lived {@link BatchSpanProcessor} and sent in the background.
+ * The process span is sent in {@link #finish(boolean)}.
+ */
+public class StreamingTelemetryExporter implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingTelemetryExporter.class);
+
+    private static final long FLUSH_TIMEOUT_MILLIS = 30_000;
+
+    private final FlowSteps flowSteps;
+    private final Resource resource;
+    private final SpanExporter exporter;
+    private final BatchSpanProcessor processor;
+    private final StepAggregator aggregator;
+
+    public StreamingTelemetryExporter(TelemetryParams params, FlowSteps flowSteps, SpanExporter exporter) {
+        this.flowSteps = flowSteps;
+        this.resource = TelemetryExporter.createResource(flowSteps);
+        this.exporter = exporter;
+        this.processor = BatchSpanProcessor.builder(exporter)
+                .setMaxQueueSize(params.maxQueueSize())
+                .setMaxExportBatchSize(params.maxExportBatchSize())
+                .setScheduleDelay(params.scheduleDelayMillis(), TimeUnit.MILLISECONDS)
+                .build();
+        this.aggregator = new StepAggregator(params.minStepDurationMillis());
+    }
+
+    public void onStepEnd(StepInfo step) {
+        long now = System.currentTimeMillis();
+        if (aggregator.accept(step, now)) {
+            processor.onEnd(TelemetryExporter.toSpan(flowSteps, resource, step, now, aggregator.take(step.id())));
+        }
+    }
+
+    public void flush() {
+        if (!processor.forceFlush().join(FLUSH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).isSuccess()) {
+            log.warn("flush -> failed to export spans in {} ms", FLUSH_TIMEOUT_MILLIS);
+        }
+    }
+
+    /**
+     * Exports the remaining (unfinished) steps and the process span.
+     *
+     * @return the trace ID
+     */
+    public String finish(boolean isProcessFinishedOk) {
+        return finish(isProcessFinishedOk, null);
+    }
+
+    /**
+     * Exports the remaining (unfinished) steps, the collapsed loops and the process span.
+     *
+     * @return the trace ID
+     */
+    public String finish(boolean isProcessFinishedOk, @Nullable LoopCollapser loops) {
+        long processEnds = System.currentTimeMillis();
+
+        List<StepInfo> steps = flowSteps.steps();
+        if (aggregator.isEnabled()) {
+            StepAggregator.sortByEnd(steps, processEnds);
+        }
+
+        for (StepInfo s : steps) {
+            if (aggregator.accept(s, processEnds)) {
+                processor.onEnd(TelemetryExporter.toSpan(flowSteps, resource, s, processEnds, aggregator.take(s.id())));
+            }
+        }
+
+        if (loops != null) {
+            loops.toSpans(flowSteps, resource, processEnds).forEach(processor::onEnd);
+        }
+
+        TelemetryExporter.toSuspensionSpans(flowSteps, resource, processEnds).forEach(processor::onEnd);
+        processor.onEnd(TelemetryExporter.toProcessSpan(flowSteps, resource, isProcessFinishedOk, processEnds, aggregator.root()));
+
+        processor.close();
+
+        if (exporter instanceof SpoolingSpanExporter s) {
+            s.deliverSpooled();
+        }
+
+        return flowSteps.traceId();
+    }
+
+    /**
+     * Closes the exporter when the process suspends. The spooled spans
+     * are delivered after the process resumes and ends.
+     */
+    public void suspend() {
+        close();
+    }
+
+    @Override
+    public void close() {
+        processor.close();
+
+        if (exporter instanceof SpoolingSpanExporter s) {
+            s.close();
+        }
+    }
+}
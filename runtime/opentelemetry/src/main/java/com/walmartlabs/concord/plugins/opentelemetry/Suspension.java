@@ -0,0 +1,66 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+import javax.annotation.Nullable;
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * A period of time the process was suspended (e.g. waiting for a form).
+ */
+@Value.Immutable
+@Value.Style(jdkOnly = true)
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+@JsonSerialize(as = ImmutableSuspension.class)
+@JsonDeserialize(as = ImmutableSuspension.class)
+public interface Suspension extends Serializable {
+
+    @Serial
+    long serialVersionUID = 1L;
+
+    @Value.Parameter
+    long suspendedAt();
+
+    /**
+     * {@code null} if the process is still suspended.
+     */
+    @Nullable
+    @Value.Parameter
+    Long resumedAt();
+
+    /**
+     * @return the time the suspension overlaps with the specified interval, in milliseconds
+     */
+    default long overlap(long from, long to) {
+        long end = resumedAt() != null ? resumedAt() : to;
+        return Math.max(0, Math.min(to, end) - Math.max(from, suspendedAt()));
+    }
+
+    static Suspension of(long suspendedAt, @Nullable Long resumedAt) {
+        return ImmutableSuspension.of(suspendedAt, resumedAt);
+    }
+}
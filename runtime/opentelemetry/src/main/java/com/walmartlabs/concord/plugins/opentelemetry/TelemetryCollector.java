@@ -32,10 +32,12 @@ import com.walmartlabs.concord.runtime.v2.sdk.Context;
 import com.walmartlabs.concord.runtime.v2.sdk.ProcessConfiguration;
 import com.walmartlabs.concord.svm.Runtime;
 import com.walmartlabs.concord.svm.*;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.io.IOException;
 import java.util.List;
 import java.util.UUID;
 
@@ -44,10 +46,12 @@ public class TelemetryCollector implements ExecutionListener {
     public static final Logger log = LoggerFactory.getLogger(TelemetryCollector.class);
 
     private static final String TELEMETRY_STATE_FILENAME = "opentelemetry.json";
+    private static final String LOOPS_STATE_FILENAME = "opentelemetry-loops.bin";
 
     private static final String PARENT_STEP_ID_VARIABLE = "__opentelemetry__parent_step_id";
     private static final String FLOW_CALL_CORRELATION_ID_STEP_ID_VARIABLE = "__opentelemetry__correlation_id";
     private static final String FLOW_CALL_FRAME_VARIABLE = "__opentelemetry__flow_call_frame";
+    static final String TRACE_PARENT_VARIABLE = "__opentelemetry__traceparent";
 
     private final ObjectMapper objectMapper;
     private final PersistenceService persistenceService;
@@ -55,8 +59,18 @@ public class TelemetryCollector implements ExecutionListener {
     private final UUID instanceId;
     private final ProcessConfiguration processConfiguration;
     private final TelemetryParams params;
+    private final boolean enabled;
+    private final boolean propagation;
+    private final ClassValue<Boolean> tracedCommands;
+    private final FlowStepsJournal journal;
 
     private FlowSteps flowSteps;
+    private StreamingTelemetryExporter streamingExporter;
+    private TelemetryMetrics metrics;
+    private LoopCollapser loops;
+    private SpilledSteps spilled;
+
+    private final StepNameCache stepNames = new StepNameCache();
 
     @Inject
     public TelemetryCollector(ObjectMapper objectMapper,
@@ -65,35 +79,79 @@ public class TelemetryCollector implements ExecutionListener {
                               ProcessConfiguration processConfiguration,
                               DefaultTaskVariablesService defaultTaskVariablesService) {
 
+        this(objectMapper, persistenceService, instanceId.getValue(), processConfiguration,
+                new TelemetryParams(defaultTaskVariablesService.get("opentelemetry")));
+    }
+
+    TelemetryCollector(ObjectMapper objectMapper,
+                       PersistenceService persistenceService,
+                       UUID instanceId,
+                       ProcessConfiguration processConfiguration,
+                       TelemetryParams params) {
+
         this.objectMapper = objectMapper;
         this.persistenceService = persistenceService;
-        this.instanceId = instanceId.getValue();
+        this.instanceId = instanceId;
         this.processConfiguration = processConfiguration;
-        this.params = new TelemetryParams(defaultTaskVariablesService.get("opentelemetry"));
+        this.params = params;
+        this.enabled = params.enabled();
+        this.propagation = params.propagation();
+        this.tracedCommands = tracedCommands(params.stepsToTrace());
+        this.journal = params.useJournal() ? new FlowStepsJournal(persistenceService, params.journalCompactionSize()) : null;
     }
 
     @Override
     public void beforeProcessStart(Runtime runtime, State state) {
-        if (!params.enabled()) {
+        if (!enabled) {
             return;
         }
 
-        this.flowSteps = new FlowSteps(instanceId, getEntryPoint(runtime, state, params, processConfiguration), System.currentTimeMillis(), List.of());
+        String entryPoint = getEntryPoint(runtime, state, params, processConfiguration);
+        TraceParent parent = TraceParent.parse(processConfiguration.arguments().get(params.traceParentVariable()));
+        if (parent != null) {
+            log.debug("beforeProcessStart -> continuing the trace of the parent process: {}", parent.format());
+            this.flowSteps = new FlowSteps(instanceId, entryPoint, System.currentTimeMillis(), parent.traceId(), null, parent.spanId(), List.of());
+        } else {
+            this.flowSteps = new FlowSteps(instanceId, entryPoint, System.currentTimeMillis(), List.of());
+        }
+        this.streamingExporter = createStreamingExporter(flowSteps);
+        this.metrics = params.metrics() ? new TelemetryMetrics(params, flowSteps) : null;
+        this.loops = params.loopCollapseThreshold() > 0 ? new LoopCollapser(params.loopCollapseThreshold(), params.loopKeepSlowest()) : null;
+        this.spilled = createSpilledSteps();
     }
 
     @Override
     public void beforeProcessResume(Runtime runtime, State state) {
-        if (!params.enabled()) {
+        if (!enabled) {
             return;
         }
 
-        this.flowSteps = persistenceService.loadPersistedFile(TELEMETRY_STATE_FILENAME,
-                is -> objectMapper.readValue(is, FlowSteps.class));
+        FlowSteps steps = null;
+        if (journal != null) {
+            steps = journal.load();
+        }
+
+        if (steps == null) {
+            steps = persistenceService.loadPersistedFile(TELEMETRY_STATE_FILENAME,
+                    is -> objectMapper.readValue(is, FlowSteps.class));
+        }
+
+        this.flowSteps = steps;
+        this.flowSteps.onResume(System.currentTimeMillis());
+        this.streamingExporter = createStreamingExporter(flowSteps);
+        this.metrics = params.metrics() ? new TelemetryMetrics(params, flowSteps) : null;
+        this.spilled = createSpilledSteps();
+
+        if (params.loopCollapseThreshold() > 0) {
+            LoopCollapser prev = persistenceService.loadPersistedFile(LOOPS_STATE_FILENAME,
+                    LoopCollapser::read);
+            this.loops = prev != null ? prev : new LoopCollapser(params.loopCollapseThreshold(), params.loopKeepSlowest());
+        }
     }
 
     @Override
     public Result beforeCommand(Runtime runtime, VM vm, State state, ThreadId threadId, Command cmd) {
-        if (!params.enabled()) {
+        if (!enabled) {
             return Result.CONTINUE;
         }
 
@@ -103,7 +161,7 @@ public class TelemetryCollector implements ExecutionListener {
                 UUID correlationId = getCorrelationId(state, threadId);
                 StepId stepId = StepId.from(correlationId, VMUtils.getCombinedLocal(state, threadId, LoopWrapper.CURRENT_INDEX));
 
-                boolean ok = flowSteps.onStepEnd(stepId, state.getThreadError(threadId) == null);
+                boolean ok = onStepEnd(state, threadId, stepId, state.getThreadError(threadId) == null, null);
                 if (!ok) {
                     log.warn("beforeCommand ['{}', '{}'] -> step start info not found. This is most likely a bug", stepId, cmd);
                 }
@@ -111,7 +169,7 @@ public class TelemetryCollector implements ExecutionListener {
             return Result.CONTINUE;
         }
 
-        if (!shouldTraceCommand(cmd, params)) {
+        if (!shouldTraceCommand(cmd)) {
             return Result.CONTINUE;
         }
 
@@ -125,19 +183,40 @@ public class TelemetryCollector implements ExecutionListener {
         log.debug("beforeCommand: {}", s);
 
         StepId stepId = StepId.from(s.getCorrelationId(), VMUtils.getCombinedLocal(state, threadId, LoopWrapper.CURRENT_INDEX));
+        StepId parentId = getParentId(state, threadId);
+        String name = getStepName(runtime, state, threadId, step);
+        String flowName = getFlowName(state, threadId);
+
+        if (loops != null && loops.onStepStart(stepId, parentId, name,
+                step.getLocation().fileName(), step.getLocation().lineNum(), flowName, System.currentTimeMillis())) {
+            if (propagation && cmd instanceof TaskCallCommand) {
+                setTraceParent(state, threadId, SpanIds.forLoop(s.getCorrelationId(), parentId));
+            }
+            return Result.CONTINUE;
+        }
 
-        flowSteps.onStepStart(stepId,
-                getStepName(runtime, state, threadId, step),
-                getParentId(state, threadId),
+        flowSteps.onStepStart(stepId, name, parentId,
                 step.getLocation().fileName(), step.getLocation().lineNum(),
-                getFlowName(state, threadId));
+                flowName);
+
+        if (propagation && cmd instanceof TaskCallCommand) {
+            setTraceParent(state, threadId, SpanIds.from(stepId));
+        }
 
         return Result.CONTINUE;
     }
 
+    /**
+     * Makes the span of the current task call available to the task as an internal
+     * variable, so it can be passed explicitly to a child process.
+     */
+    private void setTraceParent(State state, ThreadId threadId, String spanId) {
+        state.peekFrame(threadId).setLocal(TRACE_PARENT_VARIABLE, new TraceParent(flowSteps.traceId(), spanId).format());
+    }
+
     @Override
     public Result afterCommand(Runtime runtime, VM vm, State state, ThreadId threadId, Command cmd) {
-        if (params.enabled()) {
+        if (enabled) {
             afterCommand(state, threadId, cmd, true);
         }
 
@@ -146,7 +225,7 @@ public class TelemetryCollector implements ExecutionListener {
 
     @Override
     public Result onCommandError(Runtime runtime, VM vm, State state, ThreadId threadId, Command cmd, Exception e) {
-        if (params.enabled()) {
+        if (enabled) {
             afterCommand(state, threadId, cmd, false);
         }
 
@@ -154,12 +233,12 @@ public class TelemetryCollector implements ExecutionListener {
     }
 
     private void afterCommand(State state, ThreadId threadId, Command cmd, boolean success) {
-        log.debug("afterCommand: {}", cmd);
-
-        if (!shouldTraceCommand(cmd, params)) {
+        if (!shouldTraceCommand(cmd)) {
             return;
         }
 
+        log.debug("afterCommand: {}", cmd);
+
         StepCommand<?> s = (StepCommand<?>) cmd;
 
         StepId stepId = StepId.from(s.getCorrelationId(), VMUtils.getCombinedLocal(state, threadId, LoopWrapper.CURRENT_INDEX));
@@ -172,45 +251,173 @@ public class TelemetryCollector implements ExecutionListener {
             return;
         }
 
-        boolean ok = flowSteps.onStepEnd(stepId, success);
+        boolean ok = onStepEnd(state, threadId, stepId, success, s.getStep());
         if (!ok) {
             log.warn("afterCommand ['{}', '{}'] -> step start info not found. This is most likely a bug", stepId, cmd);
         }
     }
 
+    /**
+     * @param step the finished step or {@code null} for the end of a flow call
+     */
+    private boolean onStepEnd(State state, ThreadId threadId, StepId stepId, boolean success, Step step) {
+        // steps of a suspended thread will be ended again after resume (e.g. ReentrantTask)
+        if (isSuspended(state, threadId)) {
+            return (loops != null && loops.isFolded(stepId)) || flowSteps.onStepEnd(stepId, success);
+        }
+
+        if (loops != null) {
+            long duration = loops.onStepEnd(stepId, success, System.currentTimeMillis());
+            if (duration >= 0) {
+                if (metrics != null) {
+                    recordMetrics(state, threadId, step, duration, success);
+                }
+                return true;
+            }
+        }
+
+        StepInfo info;
+        if (streamingExporter == null) {
+            if (!flowSteps.onStepEnd(stepId, success)) {
+                return false;
+            }
+            info = metrics != null ? flowSteps.get(stepId) : null;
+        } else {
+            info = flowSteps.completeStep(stepId, success);
+            if (info == null) {
+                return false;
+            }
+            streamingExporter.onStepEnd(info);
+        }
+
+        if (metrics != null && info != null) {
+            long duration = info.endedAt() != null ? info.endedAt() - info.startedAt() : 0;
+            recordMetrics(state, threadId, step, duration, info.success());
+        }
+
+        if (spilled != null) {
+            spilled.onStepEnd(flowSteps);
+        }
+
+        return true;
+    }
+
+    private void recordMetrics(State state, ThreadId threadId, Step step, long duration, boolean success) {
+        if (step == null) {
+            metrics.onFlowCall(getFlowName(state, threadId), duration, success);
+        } else if (step instanceof TaskCall) {
+            metrics.onTaskCall(((TaskCall) step).getName(), duration, success);
+        } else {
+            metrics.onStep(success);
+        }
+    }
+
     @Override
     public void afterProcessEnds(Runtime runtime, State state, Frame lastFrame) {
-        if (!params.enabled()) {
+        if (!enabled) {
             return;
         }
 
         if (isSuspended(state)) {
-            persistenceService.persistFile(TELEMETRY_STATE_FILENAME,
-                    out -> objectMapper.writeValue(out, this.flowSteps));
+            flowSteps.onSuspend(System.currentTimeMillis());
+
+            if (streamingExporter != null) {
+                streamingExporter.flush();
+                streamingExporter.suspend();
+            }
+
+            if (metrics != null) {
+                metrics.flush();
+                metrics.close();
+            }
+
+            if (journal != null) {
+                journal.checkpoint(flowSteps);
+            } else {
+                persistenceService.persistFile(TELEMETRY_STATE_FILENAME,
+                        out -> objectMapper.writeValue(out, this.flowSteps));
+            }
+
+            if (loops != null) {
+                persistenceService.persistFile(LOOPS_STATE_FILENAME,
+                        out -> loops.write(out));
+            }
 
             return;
         }
 
-        sendTelemetry(true);
+        try {
+            sendTelemetry(true);
+        } finally {
+            deleteState();
+        }
     }
 
     @Override
     public void onProcessError(Runtime runtime, State state, Exception e) {
-        if (!params.enabled()) {
+        if (!enabled) {
             return;
         }
 
-        sendTelemetry(false);
+        try {
+            sendTelemetry(false);
+        } finally {
+            deleteState();
+        }
+    }
+
+    /**
+     * Removes the state saved on suspend, so it is not kept as process attachments.
+     */
+    private void deleteState() {
+        for (String fileName : List.of(FlowStepsJournal.FILENAME, TELEMETRY_STATE_FILENAME, LOOPS_STATE_FILENAME)) {
+            try {
+                persistenceService.deletePersistedFile(fileName);
+            } catch (IOException e) {
+                log.warn("deleteState -> error while removing {}: {}", fileName, e.getMessage());
+            }
+        }
     }
 
     private void sendTelemetry(boolean isProcessFinishedOk) {
         long start = System.currentTimeMillis();
         log.info("Sending telemetry for process");
 
-        TelemetryExporter telemetryExporter = new TelemetryExporter(params.endpoint());
-        String traceId = telemetryExporter.sendTelemetry(flowSteps, isProcessFinishedOk);
+        if (metrics != null) {
+            metrics.onProcessEnd(System.currentTimeMillis() - flowSteps.startedAt(), isProcessFinishedOk);
+            metrics.flush();
+            metrics.close();
+        }
+
+        String traceId;
+        if (streamingExporter != null) {
+            traceId = streamingExporter.finish(isProcessFinishedOk, loops);
+        } else {
+            try {
+                if (params.hasSampling() && !new TraceSampler(params).shouldKeep(flowSteps, spilled, loops, isProcessFinishedOk, System.currentTimeMillis())) {
+                    log.info("Sending telemetry for process -> skipped by the sampling policy");
+                    return;
+                }
+
+                SpanExporter exporter = createSpanExporter(flowSteps);
+                try {
+                    traceId = new TelemetryExporter(exporter, params.minStepDurationMillis())
+                            .sendTelemetry(flowSteps, isProcessFinishedOk, loops, spilled);
+                } finally {
+                    // after the span processor is closed, so the retries get the whole budget
+                    if (exporter instanceof SpoolingSpanExporter s) {
+                        s.deliverSpooled();
+                    }
+                }
+            } finally {
+                if (spilled != null) {
+                    spilled.cleanup();
+                }
+            }
+        }
 
         log.info("Sending telemetry for process -> done in {} ms", (System.currentTimeMillis() - start));
+        log.debug("Sending telemetry for process -> step name cache: {}", stepNames);
 
         String link = params.link();
         if (link != null) {
@@ -218,11 +425,44 @@ public class TelemetryCollector implements ExecutionListener {
         }
     }
 
+    private SpanExporter createSpanExporter(FlowSteps flowSteps) {
+        SpanExporter exporter = TelemetryExporter.createSpanExporter(params.endpoint(), params.exportTimeoutMillis());
+        if (!params.spool()) {
+            return exporter;
+        }
+
+        return new SpoolingSpanExporter(exporter,
+                SpoolingSpanExporter.Storage.of(persistenceService, SpoolingSpanExporter.SPOOL_FILENAME),
+                objectMapper, TelemetryExporter.createResource(flowSteps), params.spoolRetryBudgetMillis());
+    }
+
+    private SpilledSteps createSpilledSteps() {
+        if (params.streaming() || params.maxInMemorySteps() <= 0) {
+            return null;
+        }
+        return new SpilledSteps(persistenceService, params.maxInMemorySteps());
+    }
+
+    private StreamingTelemetryExporter createStreamingExporter(FlowSteps flowSteps) {
+        if (!params.streaming()) {
+            return null;
+        }
+
+        if (params.samplingLatencyThresholdMillis() != null || params.samplingPercentage() < 100) {
+            log.warn("Trace sampling is not supported with 'streaming: true', only 'minStepDurationMillis' is applied");
+        }
+        return new StreamingTelemetryExporter(params, flowSteps, createSpanExporter(flowSteps));
+    }
+
     private static boolean isSuspended(State state) {
         return state.threadStatus().entrySet().stream()
                 .anyMatch(e -> e.getValue() == ThreadStatus.SUSPENDED);
     }
 
+    private static boolean isSuspended(State state, ThreadId threadId) {
+        return state.threadStatus().get(threadId) == ThreadStatus.SUSPENDED;
+    }
+
     private static void setParentId(State state, ThreadId threadId, StepId id) {
         state.peekFrame(threadId).setLocal(PARENT_STEP_ID_VARIABLE, id);
     }
@@ -257,19 +497,42 @@ public class TelemetryCollector implements ExecutionListener {
         return false;
     }
 
-    private static String getStepName(Runtime runtime, State state, ThreadId threadId, Step step) {
-        if (step instanceof AbstractStep) {
-            ContextFactory contextFactory = runtime.getService(ContextFactory.class);
-            Context ctx = contextFactory.create(runtime, state, threadId, step);
+    String getStepName(Runtime runtime, State state, ThreadId threadId, Step step) {
+        String cached = stepNames.get(step);
+        if (cached != null) {
+            return cached;
+        }
 
+        if (step instanceof AbstractStep) {
             String rawSegmentName = SegmentedLogger.getSegmentName((AbstractStep<?>) step);
-            String segmentName = ctx.eval(rawSegmentName, String.class);
-            if (segmentName != null) {
-                return segmentName;
+            if (rawSegmentName != null) {
+                if (StepNameCache.isStatic(rawSegmentName)) {
+                    return stepNames.put(step, rawSegmentName);
+                }
+
+                String segmentName = eval(runtime, state, threadId, step, rawSegmentName);
+                if (segmentName != null) {
+                    return segmentName;
+                }
             }
         }
 
-        return getDefaultDescription(runtime, state, threadId, step);
+        if (step instanceof FlowCall) {
+            String flowName = ((FlowCall) step).getFlowName();
+            if (StepNameCache.isStatic(flowName)) {
+                return stepNames.put(step, "Flow call: " + flowName);
+            }
+
+            return "Flow call: " + eval(runtime, state, threadId, step, flowName);
+        }
+
+        return stepNames.put(step, getDefaultDescription(step));
+    }
+
+    private static String eval(Runtime runtime, State state, ThreadId threadId, Step step, String expr) {
+        ContextFactory contextFactory = runtime.getService(ContextFactory.class);
+        Context ctx = contextFactory.create(runtime, state, threadId, step);
+        return ctx.eval(expr, String.class);
     }
 
     private static String getEntryPoint(Runtime runtime, State state, TelemetryParams params, ProcessConfiguration processConfiguration) {
@@ -290,17 +553,8 @@ public class TelemetryCollector implements ExecutionListener {
         return processConfiguration.entryPoint();
     }
 
-    private static String getDefaultDescription(Runtime runtime, State state, ThreadId threadId, Step step) {
-        if (step instanceof FlowCall) {
-            String flowName = ((FlowCall) step).getFlowName();
-
-            ContextFactory contextFactory = runtime.getService(ContextFactory.class);
-            Context ctx = contextFactory.create(runtime, state, threadId, step);
-
-            flowName = ctx.eval(flowName, String.class);
-
-            return "Flow call: " + flowName;
-        } else if (step instanceof Expression) {
+    private static String getDefaultDescription(Step step) {
+        if (step instanceof Expression) {
             return "Expression: " + ((Expression) step).getExpr();
         } else if (step instanceof ScriptCall) {
             return "Script: " + ((ScriptCall) step).getLanguageOrRef();
@@ -329,12 +583,25 @@ public class TelemetryCollector implements ExecutionListener {
         return step.getClass().getName();
     }
 
-    private boolean shouldTraceCommand(Command cmd, TelemetryParams params) {
-        for (Class<?> cls : params.stepsToTrace()) {
-            if (cls.isInstance(cmd)) {
-                return true;
+    private boolean shouldTraceCommand(Command cmd) {
+        return tracedCommands.get(cmd.getClass());
+    }
+
+    /**
+     * Caches the trace decision per command class, so the list of traced steps
+     * is checked only once per class.
+     */
+    private static ClassValue<Boolean> tracedCommands(List<? extends Class<?>> stepsToTrace) {
+        return new ClassValue<>() {
+            @Override
+            protected Boolean computeValue(Class<?> type) {
+                for (Class<?> cls : stepsToTrace) {
+                    if (cls.isAssignableFrom(type)) {
+                        return true;
+                    }
+                }
+                return false;
             }
-        }
-        return false;
+        };
     }
 }
@@ -25,71 +25,167 @@ import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.trace.StatusCode;
 import io.opentelemetry.exporter.otlp.http.trace.OtlpHttpSpanExporter;
 import io.opentelemetry.sdk.resources.Resource;
-import io.opentelemetry.sdk.trace.IdGenerator;
 import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 public class TelemetryExporter {
 
-    private final String endpoint;
+    private static final long DEFAULT_EXPORT_TIMEOUT_MILLIS = 10_000;
+
+    /**
+     * Spilled steps are read back in batches of this size, each batch is
+     * exported before reading the next one (the default span queue holds 2048 spans).
+     */
+    private static final int SPILLED_BATCH_SIZE = 1024;
+    private static final long FLUSH_TIMEOUT_MILLIS = 30_000;
+
+    private final SpanExporter spanExporter;
+    private final long minStepDurationMillis;
 
     public TelemetryExporter(String endpoint) {
-        this.endpoint = endpoint;
+        this(createSpanExporter(endpoint, DEFAULT_EXPORT_TIMEOUT_MILLIS), 0);
+    }
+
+    public TelemetryExporter(SpanExporter spanExporter, long minStepDurationMillis) {
+        this.spanExporter = spanExporter;
+        this.minStepDurationMillis = minStepDurationMillis;
     }
 
     public String sendTelemetry(FlowSteps flowSteps, boolean isProcessFinishedOk) {
-        Resource resource = Resource.create(Attributes.of(
+        return sendTelemetry(flowSteps, isProcessFinishedOk, null, null);
+    }
+
+    public String sendTelemetry(FlowSteps flowSteps, boolean isProcessFinishedOk,
+                                @Nullable LoopCollapser loops, @Nullable SpilledSteps spilled) {
+        Resource resource = createResource(flowSteps);
+
+        StepAggregator aggregator = new StepAggregator(minStepDurationMillis);
+
+        try (BatchSpanProcessor processor = BatchSpanProcessor.builder(spanExporter).build()) {
+            long processEnds = System.currentTimeMillis();
+
+            if (spilled != null) {
+                // spilled steps ended before any of the steps in memory
+                long[] exported = {0};
+                spilled.forEach(s -> {
+                    if (aggregator.accept(s, processEnds)) {
+                        processor.onEnd(toSpan(flowSteps, resource, s, processEnds, aggregator.take(s.id())));
+                        if (++exported[0] % SPILLED_BATCH_SIZE == 0) {
+                            processor.forceFlush().join(FLUSH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                        }
+                    }
+                });
+            }
+
+            List<StepInfo> steps = flowSteps.steps();
+            if (aggregator.isEnabled()) {
+                StepAggregator.sortByEnd(steps, processEnds);
+            }
+
+            for (StepInfo s : steps) {
+                if (aggregator.accept(s, processEnds)) {
+                    processor.onEnd(toSpan(flowSteps, resource, s, processEnds, aggregator.take(s.id())));
+                }
+            }
+
+            if (loops != null) {
+                loops.toSpans(flowSteps, resource, processEnds).forEach(processor::onEnd);
+            }
+
+            toSuspensionSpans(flowSteps, resource, processEnds).forEach(processor::onEnd);
+            processor.onEnd(toProcessSpan(flowSteps, resource, isProcessFinishedOk, processEnds, aggregator.root()));
+
+            return flowSteps.traceId();
+        }
+    }
+
+    static SpanExporter createSpanExporter(String endpoint, long timeoutMillis) {
+        return OtlpHttpSpanExporter.builder()
+                .setEndpoint(endpoint)
+                .setTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    static Resource createResource(FlowSteps flowSteps) {
+        return Resource.create(Attributes.of(
                 AttributeKey.stringKey("service.name"), "Concord",
                 AttributeKey.stringKey("flowName"), flowSteps.flowName(),
                 AttributeKey.stringKey("processId"), flowSteps.instanceId().toString())
         );
+    }
 
-        OtlpHttpSpanExporter exporter = OtlpHttpSpanExporter.builder()
-                .setEndpoint(endpoint)
-                .build();
+    static ConcordSpan toProcessSpan(FlowSteps flowSteps, Resource resource, boolean isProcessFinishedOk, long processEnds,
+                                     @Nullable StepAggregator.Aggregate aggregate) {
 
-        try (BatchSpanProcessor processor = BatchSpanProcessor.builder(exporter).build()) {
+        ConcordSpanBuilder span = ConcordSpanBuilder.builder(flowSteps.traceId(), resource, flowSteps.rootSpanId(), flowSteps.flowName())
+                .setParentSpanId(flowSteps.parentSpanId())
+                .setStartTimestamp(flowSteps.startedAt(), TimeUnit.MILLISECONDS)
+                .setAttribute("processId", flowSteps.instanceId().toString())
+                .setStatus(isProcessFinishedOk ? StatusCode.OK : StatusCode.ERROR)
+                .end(processEnds);
 
-            String traceId = IdGenerator.random().generateTraceId();
+        setSuspendedMillis(span, flowSteps, flowSteps.startedAt(), processEnds);
 
-            String entryPoint = flowSteps.flowName();
-            UUID processId = flowSteps.instanceId();
-            long processEnds = System.currentTimeMillis();
+        if (aggregate != null) {
+            aggregate.applyTo(span);
+        }
 
-            ConcordSpan processSpan = ConcordSpanBuilder.builder(traceId, resource, entryPoint)
-                    .setStartTimestamp(flowSteps.startedAt(), TimeUnit.MILLISECONDS)
-                    .setAttribute("processId", processId.toString())
-                    .setStatus(isProcessFinishedOk ? StatusCode.OK : StatusCode.ERROR)
-                    .end(processEnds)
-                    .build();
+        return span.build();
+    }
 
-            Map<StepId, String> correlationIdToSpanId = new HashMap<>();
+    static ConcordSpan toSpan(FlowSteps flowSteps, Resource resource, StepInfo s, long processEnds,
+                              @Nullable StepAggregator.Aggregate aggregate) {
 
-            for (StepInfo s : flowSteps.steps()) {
-                correlationIdToSpanId.put(s.id(), IdGenerator.random().generateSpanId());
-            }
+        ConcordSpanBuilder span = ConcordSpanBuilder.builder(flowSteps.traceId(), resource, SpanIds.from(s.id()), s.name())
+                .setParentSpanId(s.parentId() == null ? flowSteps.rootSpanId() : SpanIds.from(s.parentId()))
+                .setStartTimestamp(s.startedAt(), TimeUnit.MILLISECONDS)
+                .setAttribute("filename", s.filename())
+                .setAttribute("lineNum", s.lineNum())
+                .setAttribute("flowName", s.flowName())
+                .setStatus(s.success() ? StatusCode.OK : StatusCode.ERROR)
+                .end(s.endedAt() == null ? processEnds : s.endedAt());
 
-            for (StepInfo s : flowSteps.steps()) {
-                ConcordSpan span = ConcordSpanBuilder.builder(traceId, resource, correlationIdToSpanId.get(s.id()), s.name())
-                        .setParentSpanId(s.parentId() == null ? processSpan.getSpanContext().getSpanId() : correlationIdToSpanId.get(s.parentId()))
-                        .setStartTimestamp(s.startedAt(), TimeUnit.MILLISECONDS)
-                        .setAttribute("filename", s.filename())
-                        .setAttribute("lineNum", s.lineNum())
-                        .setAttribute("flowName", s.flowName())
-                        .setStatus(s.success() ? StatusCode.OK : StatusCode.ERROR)
-                        .end(s.endedAt() == null ? processEnds : s.endedAt())
-                        .build();
-
-                processor.onEnd(span);
-            }
+        setSuspendedMillis(span, flowSteps, s.startedAt(), s.endedAt() == null ? processEnds : s.endedAt());
+
+        if (aggregate != null) {
+            aggregate.applyTo(span);
+        }
+
+        return span.build();
+    }
 
-            processor.onEnd(processSpan);
+    /**
+     * @return a span for each suspension of the process, children of the process span
+     */
+    static List<ConcordSpan> toSuspensionSpans(FlowSteps flowSteps, Resource resource, long processEnds) {
+        List<ConcordSpan> result = new ArrayList<>();
+        for (Suspension s : flowSteps.suspensions()) {
+            long resumedAt = s.resumedAt() != null ? s.resumedAt() : processEnds;
+            result.add(ConcordSpanBuilder.builder(flowSteps.traceId(), resource, "Suspended")
+                    .setParentSpanId(flowSteps.rootSpanId())
+                    .setStartTimestamp(s.suspendedAt(), TimeUnit.MILLISECONDS)
+                    .setAttribute("suspendedMillis", Math.max(0, resumedAt - s.suspendedAt()))
+                    .setStatus(StatusCode.OK)
+                    .end(resumedAt)
+                    .build());
+        }
+        return result;
+    }
 
-            return traceId;
+    /**
+     * Adds the time the process was suspended during the span, so the time
+     * spent waiting can be told from the execution time.
+     */
+    private static void setSuspendedMillis(ConcordSpanBuilder span, FlowSteps flowSteps, long from, long to) {
+        long suspended = flowSteps.suspendedMillis(from, to);
+        if (suspended > 0) {
+            span.setAttribute("suspendedMillis", suspended);
+            span.setAttribute("activeMillis", Math.max(0, to - from - suspended));
         }
     }
 }
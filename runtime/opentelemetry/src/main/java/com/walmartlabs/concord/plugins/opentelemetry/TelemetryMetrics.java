@@ -0,0 +1,146 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.exporter.otlp.http.metrics.OtlpHttpMetricExporter;
+import io.opentelemetry.sdk.metrics.Aggregation;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.export.AggregationTemporalitySelector;
+import io.opentelemetry.sdk.metrics.export.DefaultAggregationSelector;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import io.opentelemetry.sdk.metrics.export.PeriodicMetricReader;
+import io.opentelemetry.sdk.resources.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static io.opentelemetry.api.common.AttributeKey.booleanKey;
+import static io.opentelemetry.api.common.AttributeKey.stringKey;
+
+/**
+ * Process metrics: task call and flow call duration histograms, step and error counters.
+ * <p>
+ * The metrics are aggregated in memory and exported when the process ends
+ * or suspends. Delta temporality is used, so the values of multiple runs of
+ * the same process (e.g. before and after a suspend) can be summed up.
+ */
+public class TelemetryMetrics implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(TelemetryMetrics.class);
+
+    private static final AttributeKey<String> TASK_NAME = stringKey("task.name");
+    private static final AttributeKey<String> FLOW_NAME = stringKey("flow.name");
+    private static final AttributeKey<Boolean> SUCCESS = booleanKey("success");
+
+    private static final long FLUSH_TIMEOUT_MILLIS = 30_000;
+
+    private final SdkMeterProvider meterProvider;
+    private final DoubleHistogram taskDuration;
+    private final DoubleHistogram flowDuration;
+    private final DoubleHistogram processDuration;
+    private final LongCounter steps;
+    private final LongCounter errors;
+
+    public TelemetryMetrics(TelemetryParams params, FlowSteps flowSteps) {
+        this(flowSteps, createExporter(params.metricsEndpoint()));
+    }
+
+    public TelemetryMetrics(FlowSteps flowSteps, MetricExporter exporter) {
+        this.meterProvider = SdkMeterProvider.builder()
+                .setResource(Resource.create(Attributes.of(
+                        stringKey("service.name"), "Concord",
+                        stringKey("flowName"), flowSteps.flowName())))
+                .registerMetricReader(PeriodicMetricReader.builder(exporter)
+                        .setInterval(Duration.ofMinutes(1))
+                        .build())
+                .build();
+
+        Meter meter = meterProvider.get("concord");
+
+        this.taskDuration = meter.histogramBuilder("concord.task.duration")
+                .setDescription("Task call duration")
+                .setUnit("ms")
+                .build();
+        this.flowDuration = meter.histogramBuilder("concord.flow.duration")
+                .setDescription("Flow call duration")
+                .setUnit("ms")
+                .build();
+        this.processDuration = meter.histogramBuilder("concord.process.duration")
+                .setDescription("Process duration")
+                .setUnit("ms")
+                .build();
+        this.steps = meter.counterBuilder("concord.steps")
+                .setDescription("Number of executed steps")
+                .build();
+        this.errors = meter.counterBuilder("concord.errors")
+                .setDescription("Number of failed steps")
+                .build();
+    }
+
+    public void onTaskCall(String taskName, long durationMillis, boolean success) {
+        taskDuration.record(durationMillis, Attributes.of(TASK_NAME, taskName, SUCCESS, success));
+        onStep(success);
+    }
+
+    public void onFlowCall(String flowName, long durationMillis, boolean success) {
+        flowDuration.record(durationMillis, Attributes.of(FLOW_NAME, flowName, SUCCESS, success));
+        onStep(success);
+    }
+
+    public void onStep(boolean success) {
+        steps.add(1);
+        if (!success) {
+            errors.add(1);
+        }
+    }
+
+    public void onProcessEnd(long durationMillis, boolean success) {
+        processDuration.record(durationMillis, Attributes.of(SUCCESS, success));
+    }
+
+    public void flush() {
+        if (!meterProvider.forceFlush().join(FLUSH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).isSuccess()) {
+            log.warn("flush -> failed to export metrics in {} ms", FLUSH_TIMEOUT_MILLIS);
+        }
+    }
+
+    @Override
+    public void close() {
+        meterProvider.close();
+    }
+
+    private static MetricExporter createExporter(String endpoint) {
+        return OtlpHttpMetricExporter.builder()
+                .setEndpoint(endpoint)
+                .setAggregationTemporalitySelector(AggregationTemporalitySelector.deltaPreferred())
+                .setDefaultAggregationSelector(DefaultAggregationSelector.getDefault()
+                        .with(InstrumentType.HISTOGRAM, Aggregation.base2ExponentialBucketHistogram()))
+                .build();
+    }
+}
@@ -64,6 +64,169 @@ public class TelemetryParams implements Serializable {
         return MapUtils.getString(params, "link");
     }
 
+    /**
+     * If {@code true}, finished steps are exported while the process is running
+     * instead of in one batch after the process ends.
+     */
+    public boolean streaming() {
+        return MapUtils.getBoolean(params, "streaming", false);
+    }
+
+    public int maxQueueSize() {
+        return MapUtils.getInt(params, "maxQueueSize", 2048);
+    }
+
+    public int maxExportBatchSize() {
+        return MapUtils.getInt(params, "maxExportBatchSize", 512);
+    }
+
+    public long scheduleDelayMillis() {
+        return MapUtils.getNumber(params, "scheduleDelayMillis", 5000).longValue();
+    }
+
+    /**
+     * If {@code true}, spans that can't be exported are saved in the process
+     * state and sent again before the process ends.
+     */
+    public boolean spool() {
+        return MapUtils.getBoolean(params, "spool", false);
+    }
+
+    /**
+     * Maximum time spent on re-sending the spooled spans.
+     */
+    public long spoolRetryBudgetMillis() {
+        return MapUtils.getNumber(params, "spoolRetryBudgetMillis", 60_000).longValue();
+    }
+
+    /**
+     * Timeout of a single export request.
+     */
+    public long exportTimeoutMillis() {
+        return MapUtils.getNumber(params, "exportTimeoutMillis", 10_000).longValue();
+    }
+
+    /**
+     * If {@code true}, task and flow call metrics are exported in addition to traces.
+     */
+    public boolean metrics() {
+        return MapUtils.getBoolean(params, "metrics", false);
+    }
+
+    /**
+     * OTLP metrics endpoint, by default derived from the traces {@link #endpoint()}.
+     */
+    public String metricsEndpoint() {
+        String result = MapUtils.getString(params, "metricsEndpoint");
+        if (result != null) {
+            return result;
+        }
+
+        String endpoint = endpoint();
+        if (endpoint.endsWith("/v1/traces")) {
+            return endpoint.substring(0, endpoint.length() - "/v1/traces".length()) + "/v1/metrics";
+        }
+
+        throw new IllegalArgumentException("Can't determine the metrics endpoint, please specify 'metricsEndpoint'");
+    }
+
+    /**
+     * Keep the traces of failed processes regardless of other sampling parameters.
+     */
+    public boolean samplingKeepErrors() {
+        return MapUtils.getBoolean(sampling(), "keepErrors", true);
+    }
+
+    /**
+     * Keep the traces of processes (or with steps) running longer than the threshold.
+     */
+    @Nullable
+    public Long samplingLatencyThresholdMillis() {
+        Number result = MapUtils.getNumber(sampling(), "latencyThresholdMillis", null);
+        return result != null ? result.longValue() : null;
+    }
+
+    /**
+     * Percentage of the remaining traces to keep.
+     */
+    public double samplingPercentage() {
+        return MapUtils.getNumber(sampling(), "percentage", 100).doubleValue();
+    }
+
+    /**
+     * Steps shorter than this value are not exported as separate spans,
+     * only their aggregated attributes are added to the parent span.
+     */
+    public long minStepDurationMillis() {
+        return MapUtils.getNumber(sampling(), "minStepDurationMillis", 0).longValue();
+    }
+
+    public boolean hasSampling() {
+        return !sampling().isEmpty();
+    }
+
+    private Map<String, Object> sampling() {
+        return MapUtils.getMap(params, "sampling", Map.of());
+    }
+
+    /**
+     * Max number of steps kept in memory, finished steps above the limit
+     * are moved to a file in the process state. {@code 0} means no limit.
+     * Not used in the streaming mode, finished steps are exported right away.
+     */
+    public int maxInMemorySteps() {
+        return MapUtils.getInt(params, "maxInMemorySteps", 0);
+    }
+
+    /**
+     * Loop iterations above this number are folded into one aggregate span
+     * per loop step. {@code 0} disables collapsing.
+     */
+    public int loopCollapseThreshold() {
+        return MapUtils.getInt(loops(), "collapseThreshold", 0);
+    }
+
+    /**
+     * Number of the slowest folded iterations exported as child spans
+     * of the aggregate span.
+     */
+    public int loopKeepSlowest() {
+        return MapUtils.getInt(loops(), "keepSlowest", 10);
+    }
+
+    private Map<String, Object> loops() {
+        return MapUtils.getMap(params, "loops", Map.of());
+    }
+
+    /**
+     * If {@code true}, the W3C {@code traceparent} of the current task call
+     * is available to the task as the {@code __opentelemetry__traceparent} variable,
+     * so it can be passed to child processes.
+     */
+    public boolean propagation() {
+        return MapUtils.getBoolean(params, "propagation", false);
+    }
+
+    /**
+     * Name of the process argument with the W3C {@code traceparent} value.
+     * If a process is started with such argument, its spans continue the parent's trace.
+     */
+    public String traceParentVariable() {
+        return MapUtils.getString(params, "traceParentVariable", "traceparent");
+    }
+
+    /**
+     * Format of the state saved when the process suspends: {@code journal}
+     * (default, append-only binary journal) or {@code json}.
+     */
+    public boolean useJournal() {
+        return !"json".equals(MapUtils.getString(params, "stateFormat", "journal"));
+    }
+
+    public long journalCompactionSize() {
+        return MapUtils.getNumber(params, "journalCompactionSize", 1024 * 1024).longValue();
+    }
+
     public List<? extends Class<? extends StepCommand<?>>> stepsToTrace() {
         List<String> steps = MapUtils.getList(params, "additionalSteps", List.of());
         if (steps.isEmpty()) {
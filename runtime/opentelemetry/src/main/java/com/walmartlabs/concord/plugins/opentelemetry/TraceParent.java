@@ -0,0 +1,63 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import io.opentelemetry.api.trace.SpanId;
+import io.opentelemetry.api.trace.TraceId;
+
+import javax.annotation.Nullable;
+
+/**
+ * W3C trace context {@code traceparent} value:
+ * {@code 00-<trace ID>-<parent span ID>-<trace flags>}.
+ */
+record TraceParent(String traceId, String spanId) {
+
+    private static final String VERSION = "00";
+    private static final String SAMPLED = "01";
+
+    /**
+     * @return the parsed value or {@code null} if the value is not a valid {@code traceparent}
+     */
+    @Nullable
+    static TraceParent parse(@Nullable Object value) {
+        if (!(value instanceof String s)) {
+            return null;
+        }
+
+        String[] parts = s.trim().split("-");
+        if (parts.length < 4 || parts[0].length() != 2 || "ff".equals(parts[0])) {
+            return null;
+        }
+
+        String traceId = parts[1];
+        String spanId = parts[2];
+        if (!TraceId.isValid(traceId) || !SpanId.isValid(spanId)) {
+            return null;
+        }
+
+        return new TraceParent(traceId, spanId);
+    }
+
+    String format() {
+        return VERSION + "-" + traceId + "-" + spanId + "-" + SAMPLED;
+    }
+}
@@ -0,0 +1,109 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import javax.annotation.Nullable;
+
+/**
+ * Tail-based sampling: decides whether the trace of a finished process
+ * should be exported.
+ */
+public class TraceSampler {
+
+    private final boolean keepErrors;
+    private final Long latencyThresholdMillis;
+    private final double percentage;
+
+    public TraceSampler(TelemetryParams params) {
+        this.keepErrors = params.samplingKeepErrors();
+        this.latencyThresholdMillis = params.samplingLatencyThresholdMillis();
+        this.percentage = params.samplingPercentage();
+    }
+
+    public boolean shouldKeep(FlowSteps flowSteps, boolean isProcessFinishedOk, long processEnds) {
+        return shouldKeep(flowSteps, null, null, isProcessFinishedOk, processEnds);
+    }
+
+    /**
+     * @param spilled steps moved out of {@code flowSteps}, if any
+     * @param loops   folded loop iterations, if any
+     */
+    public boolean shouldKeep(FlowSteps flowSteps, @Nullable SpilledSteps spilled, @Nullable LoopCollapser loops,
+                              boolean isProcessFinishedOk, long processEnds) {
+
+        if (!isProcessFinishedOk && keepErrors) {
+            return true;
+        }
+
+        if (latencyThresholdMillis != null && isSlow(flowSteps, spilled, loops, processEnds)) {
+            return true;
+        }
+
+        return isSampled(flowSteps.traceId(), percentage);
+    }
+
+    private boolean isSlow(FlowSteps flowSteps, SpilledSteps spilled, LoopCollapser loops, long processEnds) {
+        if (processEnds - flowSteps.startedAt() >= latencyThresholdMillis) {
+            return true;
+        }
+
+        for (StepInfo s : flowSteps.steps()) {
+            if (duration(s, processEnds) >= latencyThresholdMillis) {
+                return true;
+            }
+        }
+
+        if (loops != null && loops.maxDuration(processEnds) >= latencyThresholdMillis) {
+            return true;
+        }
+
+        if (spilled != null) {
+            long[] max = {0};
+            spilled.forEach(s -> max[0] = Math.max(max[0], duration(s, processEnds)));
+            return max[0] >= latencyThresholdMillis;
+        }
+
+        return false;
+    }
+
+    private static long duration(StepInfo s, long processEnds) {
+        long endedAt = s.endedAt() != null ? s.endedAt() : processEnds;
+        return endedAt - s.startedAt();
+    }
+
+    /**
+     * Same approach as in the OpenTelemetry's {@code TraceIdRatioBased} sampler:
+     * the decision depends only on the trace ID.
+     */
+    static boolean isSampled(String traceId, double percentage) {
+        if (percentage >= 100) {
+            return true;
+        }
+
+        if (percentage <= 0) {
+            return false;
+        }
+
+        long bound = (long) (percentage / 100 * Long.MAX_VALUE);
+        long value = Long.parseUnsignedLong(traceId.substring(16), 16) >>> 1;
+        return value < bound;
+    }
+}
@@ -0,0 +1,126 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlowStepsJournalTest {
+
+    @Test
+    public void testReplay() throws Exception {
+        FlowSteps flowSteps = new FlowSteps(UUID.randomUUID(), "TestFlow", System.currentTimeMillis(), List.of());
+        StepId step1 = StepId.from(UUID.randomUUID());
+        StepId step2 = StepId.from(UUID.randomUUID(), 0);
+        StepId step3 = StepId.from(UUID.randomUUID(), 1);
+
+        flowSteps.onStepStart(step1, "Step 1", null, "concord.yaml", 1, "default");
+        flowSteps.onStepStart(step2, "Step 2", step1, "concord.yaml", 10, "flow2");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        FlowStepsJournal journal = new FlowStepsJournal(null, Long.MAX_VALUE);
+        journal.writeSnapshot(out, flowSteps);
+        assertNull(flowSteps.trackChanges());
+
+        flowSteps.onStepEnd(step2, true);
+        flowSteps.onStepStart(step3, "Step 3", step1, "concord.yaml", 10, "flow2");
+        flowSteps.completeStep(step3, true);
+
+        List<StepId> changes = flowSteps.trackChanges();
+        assertEquals(Set.of(step2, step3), new HashSet<>(changes));
+        journal.writeChanges(out, flowSteps, changes);
+
+        FlowSteps restored = new FlowStepsJournal(null, Long.MAX_VALUE).replay(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(flowSteps.instanceId(), restored.instanceId());
+        assertEquals(flowSteps.flowName(), restored.flowName());
+        assertEquals(flowSteps.startedAt(), restored.startedAt());
+        assertEquals(flowSteps.traceId(), restored.traceId());
+        assertEquals(flowSteps.rootSpanId(), restored.rootSpanId());
+        assertEquals(flowSteps.steps(), restored.steps());
+    }
+
+    @Test
+    public void testSuspensions() throws Exception {
+        FlowSteps flowSteps = new FlowSteps(UUID.randomUUID(), "TestFlow", 0, List.of());
+        StepId step1 = StepId.from(UUID.randomUUID());
+        flowSteps.onStepStart(step1, "Step 1", null, "concord.yaml", 1, "default");
+        flowSteps.onSuspend(1000);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FlowStepsJournal journal = new FlowStepsJournal(null, Long.MAX_VALUE);
+        journal.writeSnapshot(out, flowSteps);
+        flowSteps.trackChanges();
+
+        flowSteps.onResume(3000);
+        flowSteps.onSuspend(5000);
+        journal.writeChanges(out, flowSteps, flowSteps.trackChanges());
+
+        FlowSteps restored = new FlowStepsJournal(null, Long.MAX_VALUE).replay(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(List.of(Suspension.of(1000, 3000L), Suspension.of(5000, null)), restored.suspensions());
+
+        // 1000..3000 and 5000..6000
+        assertEquals(3000, restored.suspendedMillis(0, 6000));
+        assertEquals(1500, restored.suspendedMillis(2500, 5500));
+    }
+
+    @Test
+    public void testParentSpan() throws Exception {
+        FlowSteps flowSteps = new FlowSteps(UUID.randomUUID(), "TestFlow", System.currentTimeMillis(),
+                "4bf92f3577b34da6a3ce929d0e0e4736", null, "00f067aa0ba902b7", List.of());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new FlowStepsJournal(null, Long.MAX_VALUE).writeSnapshot(out, flowSteps);
+
+        FlowSteps restored = new FlowStepsJournal(null, Long.MAX_VALUE).replay(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(flowSteps.traceId(), restored.traceId());
+        assertEquals(flowSteps.rootSpanId(), restored.rootSpanId());
+        assertEquals("00f067aa0ba902b7", restored.parentSpanId());
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        FlowSteps flowSteps = new FlowSteps(UUID.randomUUID(), "TestFlow", System.currentTimeMillis(), List.of());
+        StepId step1 = StepId.from(UUID.randomUUID());
+        flowSteps.onStepStart(step1, "Step 1", null, "concord.yaml", 1, "default");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FlowStepsJournal journal = new FlowStepsJournal(null, Long.MAX_VALUE);
+        journal.writeSnapshot(out, flowSteps);
+        flowSteps.trackChanges();
+
+        flowSteps.onStepEnd(step1, true);
+        journal.writeChanges(out, flowSteps, flowSteps.trackChanges());
+
+        byte[] bytes = out.toByteArray();
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 5);
+
+        FlowSteps restored = new FlowStepsJournal(null, Long.MAX_VALUE).replay(new ByteArrayInputStream(truncated));
+        assertEquals(1, restored.steps().size());
+        assertNull(restored.steps().get(0).endedAt());
+    }
+}
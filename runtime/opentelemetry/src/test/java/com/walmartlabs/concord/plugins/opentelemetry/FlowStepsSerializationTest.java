@@ -34,6 +34,9 @@ public class FlowStepsSerializationTest {
     public void test() throws Exception {
         FlowSteps flowStepsOrig = new FlowSteps(UUID.randomUUID(), "TestFlow", System.currentTimeMillis(), List.of());
         flowStepsOrig.onStepStart(StepId.from(UUID.randomUUID(), 123), "Step 1", null, "file1", 123, "flow1");
+        flowStepsOrig.onSuspend(1000);
+        flowStepsOrig.onResume(3000);
+        flowStepsOrig.onSuspend(5000);
 
         ObjectMapper objectMapper = new ObjectMapper();
         String json = objectMapper.writeValueAsString(flowStepsOrig);
@@ -45,5 +48,6 @@ public class FlowStepsSerializationTest {
         assertEquals(flowStepsOrig.startedAt(), flowSteps.startedAt());
         assertEquals(1, flowSteps.steps().size());
         assertEquals(flowStepsOrig.steps(), flowSteps.steps());
+        assertEquals(flowStepsOrig.suspensions(), flowSteps.suspensions());
     }
 }
@@ -0,0 +1,122 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlowStepsTest {
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        int threads = 8;
+        int stepsPerThread = 5_000;
+
+        FlowSteps flowSteps = new FlowSteps(UUID.randomUUID(), "default", System.currentTimeMillis(), List.of());
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < stepsPerThread; i++) {
+                        StepId id = StepId.from(UUID.randomUUID(), i);
+                        flowSteps.onStepStart(id, "step", null, "concord.yaml", i, "default");
+                        assertTrue(flowSteps.onStepEnd(id, i % 2 == 0));
+                    }
+                }));
+            }
+
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        List<StepInfo> steps = flowSteps.steps();
+        assertEquals(threads * stepsPerThread, steps.size());
+        assertEquals(threads * stepsPerThread, flowSteps.size());
+        assertTrue(steps.stream().allMatch(s -> s.endedAt() != null));
+        assertEquals(threads * stepsPerThread / 2, steps.stream().filter(StepInfo::success).count());
+    }
+
+    @Test
+    public void testCompleteStep() {
+        FlowSteps flowSteps = new FlowSteps(UUID.randomUUID(), "default", System.currentTimeMillis(), List.of());
+
+        List<StepId> ids = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            StepId id = StepId.from(UUID.randomUUID());
+            ids.add(id);
+            flowSteps.onStepStart(id, "step " + i, null, "concord.yaml", i, "default");
+        }
+
+        for (int i = 0; i < 4_000; i++) {
+            StepInfo step = flowSteps.completeStep(ids.get(i), true);
+            assertNotNull(step);
+            assertEquals("step " + i, step.name());
+            assertNotNull(step.endedAt());
+        }
+
+        assertNull(flowSteps.completeStep(ids.get(0), true));
+        assertFalse(flowSteps.onStepEnd(ids.get(0), true));
+
+        List<StepInfo> steps = flowSteps.steps();
+        assertEquals(1_000, steps.size());
+        assertEquals(ids.get(4_000), steps.get(0).id());
+        assertNull(steps.get(0).endedAt());
+    }
+
+    @Test
+    public void testJavaSerialization() throws Exception {
+        FlowSteps flowSteps = new FlowSteps(UUID.randomUUID(), "default", System.currentTimeMillis(), List.of());
+        flowSteps.onStepStart(StepId.from(UUID.randomUUID()), "step", null, "concord.yaml", 1, "default");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            oos.writeObject(flowSteps);
+        }
+
+        FlowSteps restored;
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            restored = (FlowSteps) ois.readObject();
+        }
+
+        // enough steps to allocate new chunks
+        for (int i = 0; i < 5_000; i++) {
+            restored.onStepStart(StepId.from(UUID.randomUUID()), "step", null, "concord.yaml", i, "default");
+        }
+        assertEquals(5_001, restored.size());
+    }
+}
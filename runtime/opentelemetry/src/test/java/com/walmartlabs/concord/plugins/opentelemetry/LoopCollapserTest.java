@@ -0,0 +1,100 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.sdk.resources.Resource;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoopCollapserTest {
+
+    @Test
+    public void test() throws Exception {
+        FlowSteps flowSteps = new FlowSteps(UUID.randomUUID(), "default", 0, List.of());
+        LoopCollapser loops = new LoopCollapser(10, 3);
+
+        UUID loopStep = UUID.randomUUID();
+        UUID nestedStep = UUID.randomUUID();
+
+        int recorded = 0;
+        for (int i = 0; i < 100; i++) {
+            StepId iteration = StepId.from(loopStep, i);
+            long start = i * 1000L;
+
+            // iteration #5 is the slowest (recorded), #50 is the slowest folded one
+            long duration = i == 5 ? 1000 : i == 50 ? 500 : i;
+
+            if (!loops.onStepStart(iteration, null, "Flow call: item", "concord.yaml", 5, "default", start)) {
+                recorded++;
+                assertEquals(-1, loops.onStepEnd(iteration, i % 10 != 0, start + duration));
+                continue;
+            }
+
+            StepId nested = StepId.from(nestedStep, i);
+            assertTrue(loops.onStepStart(nested, iteration, "Task: log", "concord.yaml", 10, "item", start));
+            assertEquals(1, loops.onStepEnd(nested, true, start + 1));
+
+            assertEquals(duration, loops.onStepEnd(iteration, i % 10 != 0, start + duration));
+        }
+        assertEquals(10, recorded);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        loops.write(out);
+        loops = LoopCollapser.read(new ByteArrayInputStream(out.toByteArray()));
+
+        List<ConcordSpan> spans = loops.toSpans(flowSteps, Resource.empty(), 100_000);
+        assertEquals(3, spans.size());
+
+        ConcordSpan aggregate = spans.get(0);
+        assertEquals(SpanIds.forLoop(loopStep, null), aggregate.getSpanContext().getSpanId());
+        assertEquals(flowSteps.rootSpanId(), aggregate.getParentSpanContext().getSpanId());
+        assertEquals(100, aggregate.getAttribute(AttributeKey.longKey("loop.iterations")));
+        assertEquals(10, aggregate.getAttribute(AttributeKey.longKey("loop.failed")));
+        assertEquals(90, aggregate.getAttribute(AttributeKey.longKey("loop.nestedSteps")));
+        assertEquals(0, aggregate.getAttribute(AttributeKey.longKey("loop.durationMillis.min")));
+        assertEquals(1000, aggregate.getAttribute(AttributeKey.longKey("loop.durationMillis.max")));
+        assertEquals(503, aggregate.getAttribute(AttributeKey.longKey("loop.durationMillis.p99")));
+
+        // the recorded iteration already has its own span
+        assertTrue(spans.stream().noneMatch(s -> s.getSpanContext().getSpanId().equals(SpanIds.from(StepId.from(loopStep, 5)))));
+        assertTrue(spans.stream().skip(1).allMatch(s -> s.getParentSpanContext().getSpanId().equals(aggregate.getSpanContext().getSpanId())));
+        assertTrue(spans.stream().anyMatch(s -> s.getSpanContext().getSpanId().equals(SpanIds.from(StepId.from(loopStep, 50)))));
+    }
+
+    @Test
+    public void testHistogram() {
+        LoopCollapser.DurationHistogram h = new LoopCollapser.DurationHistogram();
+        for (int i = 1; i <= 10_000; i++) {
+            h.add(i);
+        }
+
+        long p99 = h.percentile(0.99);
+        assertTrue(p99 >= 9900 && p99 <= 9900 * 1.02, "p99: " + p99);
+        assertEquals(50, h.percentile(0.005));
+    }
+}
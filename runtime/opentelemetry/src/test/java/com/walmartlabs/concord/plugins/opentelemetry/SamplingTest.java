@@ -0,0 +1,125 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SamplingTest {
+
+    @Test
+    public void testTraceSampler() {
+        long now = System.currentTimeMillis();
+
+        TraceSampler sampler = new TraceSampler(new TelemetryParams(Map.of("sampling", Map.of(
+                "latencyThresholdMillis", 1000,
+                "percentage", 0))));
+
+        FlowSteps fast = new FlowSteps(UUID.randomUUID(), "default", now - 10, List.of());
+        assertFalse(sampler.shouldKeep(fast, true, now));
+        assertTrue(sampler.shouldKeep(fast, false, now));
+
+        FlowSteps slow = new FlowSteps(UUID.randomUUID(), "default", now - 5000, List.of());
+        assertTrue(sampler.shouldKeep(slow, true, now));
+    }
+
+    @Test
+    public void testSlowFoldedIteration() {
+        long now = System.currentTimeMillis();
+
+        TraceSampler sampler = new TraceSampler(new TelemetryParams(Map.of("sampling", Map.of(
+                "latencyThresholdMillis", 1000,
+                "percentage", 0))));
+
+        FlowSteps flowSteps = new FlowSteps(UUID.randomUUID(), "default", now - 10, List.of());
+        LoopCollapser loops = new LoopCollapser(1, 0);
+
+        UUID loopStep = UUID.randomUUID();
+        assertFalse(loops.onStepStart(StepId.from(loopStep, 0), null, "Task: log", "concord.yaml", 1, "default", now - 10));
+        assertTrue(loops.onStepStart(StepId.from(loopStep, 1), null, "Task: log", "concord.yaml", 1, "default", now - 10));
+        assertFalse(sampler.shouldKeep(flowSteps, null, loops, true, now));
+
+        loops.onStepEnd(StepId.from(loopStep, 1), true, now + 2000);
+        assertTrue(sampler.shouldKeep(flowSteps, null, loops, true, now));
+    }
+
+    @Test
+    public void testPercentage() {
+        int sampled = 0;
+        for (int i = 0; i < 10_000; i++) {
+            FlowSteps flowSteps = new FlowSteps(UUID.randomUUID(), "default", 0, List.of());
+            if (TraceSampler.isSampled(flowSteps.traceId(), 10)) {
+                sampled++;
+            }
+        }
+
+        assertTrue(sampled > 800 && sampled < 1200, "sampled: " + sampled);
+    }
+
+    @Test
+    public void testAggregator() {
+        long now = System.currentTimeMillis();
+
+        StepId parent = StepId.from(UUID.randomUUID());
+        StepId shortParent = StepId.from(UUID.randomUUID());
+        StepId child = StepId.from(UUID.randomUUID());
+
+        List<StepInfo> steps = new ArrayList<>(List.of(
+                step(parent, null, now - 1000, now),
+                step(shortParent, parent, now - 50, now - 10),
+                step(child, shortParent, now - 40, now - 20)));
+
+        StepAggregator aggregator = new StepAggregator(100);
+        StepAggregator.sortByEnd(steps, now);
+
+        assertEquals(List.of(child, shortParent, parent), steps.stream().map(StepInfo::id).toList());
+
+        assertFalse(aggregator.accept(steps.get(0), now));
+        assertFalse(aggregator.accept(steps.get(1), now));
+        assertTrue(aggregator.accept(steps.get(2), now));
+
+        StepAggregator.Aggregate aggregate = aggregator.take(parent);
+        assertNotNull(aggregate);
+        assertNull(aggregator.root());
+
+        assertEquals(2, aggregate.count());
+        assertEquals(60, aggregate.durationMillis());
+        assertEquals(0, aggregate.failed());
+    }
+
+    private static StepInfo step(StepId id, StepId parentId, long startedAt, long endedAt) {
+        return StepInfo.builder()
+                .id(id)
+                .name("step")
+                .parentId(parentId)
+                .startedAt(startedAt)
+                .endedAt(endedAt)
+                .lineNum(1)
+                .success(true)
+                .build();
+    }
+}
@@ -0,0 +1,82 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpilledStepsTest {
+
+    @Test
+    public void test() throws Exception {
+        FlowSteps flowSteps = new FlowSteps(UUID.randomUUID(), "default", 0, List.of());
+
+        StepId parent = StepId.from(UUID.randomUUID());
+        flowSteps.onStepStart(parent, "Flow call: test", null, "concord.yaml", 1, "default");
+        for (int i = 0; i < 10; i++) {
+            StepId child = StepId.from(UUID.randomUUID(), i);
+            flowSteps.onStepStart(child, "Task: log", parent, "concord.yaml", 5, "test");
+            flowSteps.onStepEnd(child, i % 2 == 0);
+        }
+
+        List<StepInfo> first = flowSteps.removeFinished();
+        assertEquals(10, first.size());
+        assertEquals(1, flowSteps.size());
+        assertNotNull(flowSteps.get(parent));
+
+        flowSteps.onStepEnd(parent, true);
+        List<StepInfo> second = flowSteps.removeFinished();
+        assertEquals(1, second.size());
+        assertEquals(0, flowSteps.size());
+
+        SpilledSteps spilled = new SpilledSteps(null, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        spilled.writeBatch(out, first);
+        spilled.writeBatch(out, second);
+
+        List<StepInfo> restored = new ArrayList<>();
+        SpilledSteps.readBatches(new ByteArrayInputStream(out.toByteArray()), restored::add);
+
+        List<StepInfo> expected = new ArrayList<>(first);
+        expected.addAll(second);
+        assertEquals(expected, restored);
+    }
+
+    @Test
+    public void testInterning() {
+        FlowSteps flowSteps = new FlowSteps(UUID.randomUUID(), "default", 0, List.of());
+
+        StepId a = StepId.from(UUID.randomUUID());
+        StepId b = StepId.from(UUID.randomUUID());
+        flowSteps.onStepStart(a, "Task: log", null, new String("concord.yaml"), 1, new String("default"));
+        flowSteps.onStepStart(b, "Task: log", null, new String("concord.yaml"), 2, new String("default"));
+
+        assertSame(flowSteps.get(a).filename(), flowSteps.get(b).filename());
+        assertSame(flowSteps.get(a).flowName(), flowSteps.get(b).flowName());
+    }
+}
@@ -0,0 +1,193 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpoolingSpanExporterTest {
+
+    private HttpServer server;
+    private final AtomicInteger responseCode = new AtomicInteger(503);
+    private final AtomicInteger delivered = new AtomicInteger();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/v1/traces", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            int code = responseCode.get();
+            if (code == 200) {
+                delivered.incrementAndGet();
+            }
+            exchange.sendResponseHeaders(code, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testDeliverSpooled() {
+        InMemoryStorage storage = new InMemoryStorage();
+        SpoolingSpanExporter exporter = createExporter(storage, 10_000);
+
+        assertTrue(exporter.export(spans()).join(10, TimeUnit.SECONDS).isSuccess());
+        assertTrue(storage.size() > 0);
+        assertEquals(0, delivered.get());
+
+        responseCode.set(200);
+        exporter.deliverSpooled();
+
+        assertNull(storage.read());
+        assertEquals(1, delivered.get());
+    }
+
+    @Test
+    public void testKeepUndelivered() {
+        InMemoryStorage storage = new InMemoryStorage();
+        SpoolingSpanExporter exporter = createExporter(storage, 1_000);
+
+        exporter.export(spans()).join(10, TimeUnit.SECONDS);
+        exporter.deliverSpooled();
+
+        assertNotNull(storage.read());
+        assertEquals(2, new String(storage.read()).lines().count());
+        assertEquals(0, delivered.get());
+    }
+
+    @Test
+    public void testSkipDeliveryOnSuspend() {
+        InMemoryStorage storage = new InMemoryStorage();
+        SpoolingSpanExporter exporter = createExporter(storage, 10_000);
+
+        exporter.export(spans()).join(10, TimeUnit.SECONDS);
+
+        responseCode.set(200);
+        exporter.close();
+
+        assertEquals(2, new String(storage.read()).lines().count());
+        assertEquals(0, delivered.get());
+    }
+
+    @Test
+    public void testDeliverAfterProcessorClose() throws Exception {
+        InMemoryStorage storage = new InMemoryStorage();
+        SpoolingSpanExporter exporter = createExporter(storage, 20_000);
+
+        BatchSpanProcessor processor = BatchSpanProcessor.builder(exporter).build();
+        concordSpans().forEach(processor::onEnd);
+        processor.close();
+
+        // the processor doesn't wait for the retries
+        assertEquals(2, new String(storage.read()).lines().count());
+        assertEquals(0, delivered.get());
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            executor.schedule(() -> responseCode.set(200), 2, TimeUnit.SECONDS);
+            exporter.deliverSpooled();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertNull(storage.read());
+        assertEquals(1, delivered.get());
+    }
+
+    private SpoolingSpanExporter createExporter(SpoolingSpanExporter.Storage storage, long retryBudgetMillis) {
+        String endpoint = "http://localhost:" + server.getAddress().getPort() + "/v1/traces";
+        return new SpoolingSpanExporter(TelemetryExporter.createSpanExporter(endpoint, 5_000), storage,
+                new ObjectMapper(), Resource.getDefault(), retryBudgetMillis);
+    }
+
+    private static List<SpanData> spans() {
+        return concordSpans().stream()
+                .map(ConcordSpan::toSpanData)
+                .toList();
+    }
+
+    private static List<ConcordSpan> concordSpans() {
+        FlowSteps flowSteps = new FlowSteps(UUID.randomUUID(), "default", System.currentTimeMillis(), List.of());
+        flowSteps.onStepStart(StepId.from(UUID.randomUUID()), "test-step", null, "concord.yml", 1, "default");
+
+        Resource resource = TelemetryExporter.createResource(flowSteps);
+        long now = System.currentTimeMillis();
+
+        return List.of(
+                TelemetryExporter.toSpan(flowSteps, resource, flowSteps.steps().get(0), now, null),
+                TelemetryExporter.toProcessSpan(flowSteps, resource, true, now, null));
+    }
+
+    private static class InMemoryStorage implements SpoolingSpanExporter.Storage {
+
+        private ByteArrayOutputStream data;
+
+        @Override
+        public synchronized void append(byte[] data) {
+            if (this.data == null) {
+                this.data = new ByteArrayOutputStream();
+            }
+            this.data.writeBytes(data);
+        }
+
+        @Override
+        public synchronized void replace(byte[] data) {
+            this.data = new ByteArrayOutputStream();
+            this.data.writeBytes(data);
+        }
+
+        @Override
+        public synchronized byte[] read() {
+            return data != null ? data.toByteArray() : null;
+        }
+
+        @Override
+        public synchronized void delete() {
+            data = null;
+        }
+
+        synchronized int size() {
+            return data != null ? data.size() : 0;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.walmartlabs.concord.runtime.v2.model.FlowCall;
+import com.walmartlabs.concord.runtime.v2.model.FlowCallOptions;
+import com.walmartlabs.concord.runtime.v2.model.Location;
+import com.walmartlabs.concord.runtime.v2.runner.context.ContextFactory;
+import com.walmartlabs.concord.runtime.v2.sdk.Context;
+import com.walmartlabs.concord.runtime.v2.sdk.ProcessConfiguration;
+import com.walmartlabs.concord.svm.Runtime;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StepNameCacheTest {
+
+    @Test
+    public void testIsStatic() {
+        assertTrue(StepNameCache.isStatic("Task: log"));
+        assertTrue(StepNameCache.isStatic(""));
+        assertTrue(StepNameCache.isStatic("costs $5"));
+        assertTrue(StepNameCache.isStatic("$ {name}"));
+        assertTrue(StepNameCache.isStatic("{name}$"));
+
+        assertFalse(StepNameCache.isStatic("${name}"));
+        assertFalse(StepNameCache.isStatic("Flow call: ${name}"));
+        assertFalse(StepNameCache.isStatic("unclosed ${name"));
+        // escaped expressions are rendered by the EL, so they are not cached
+        assertFalse(StepNameCache.isStatic("\\${name}"));
+    }
+
+    @Test
+    public void testCounters() {
+        StepNameCache cache = new StepNameCache();
+        FlowCall a = flowCall("a");
+        FlowCall b = flowCall("b");
+
+        assertNull(cache.get(a));
+        assertEquals("A", cache.put(a, "A"));
+        assertEquals("A", cache.get(a));
+        assertEquals("A", cache.get(a));
+        assertNull(cache.get(b));
+
+        assertEquals(2, cache.hits());
+        assertEquals(2, cache.misses());
+        assertEquals("hits: 2, misses: 2, hit rate: 50%", cache.toString());
+    }
+
+    @Test
+    public void testStaticNameIsResolvedOnce() {
+        AtomicInteger evals = new AtomicInteger();
+        Runtime runtime = runtime(evals);
+        TelemetryCollector collector = collector();
+
+        FlowCall step = flowCall("inner");
+        for (int i = 0; i < 3; i++) {
+            assertEquals("Flow call: inner", collector.getStepName(runtime, null, null, step));
+        }
+
+        assertEquals(0, evals.get());
+    }
+
+    @Test
+    public void testDynamicNameIsEvaluatedEveryTime() {
+        AtomicInteger evals = new AtomicInteger();
+        Runtime runtime = runtime(evals);
+        TelemetryCollector collector = collector();
+
+        FlowCall step = flowCall("${name}");
+        assertEquals("Flow call: flow-1", collector.getStepName(runtime, null, null, step));
+        assertEquals("Flow call: flow-2", collector.getStepName(runtime, null, null, step));
+        assertEquals("Flow call: flow-3", collector.getStepName(runtime, null, null, step));
+
+        assertEquals(3, evals.get());
+    }
+
+    private static TelemetryCollector collector() {
+        ProcessConfiguration processConfiguration = ProcessConfiguration.builder()
+                .entryPoint("default")
+                .build();
+
+        return new TelemetryCollector(new ObjectMapper(), null, UUID.randomUUID(), processConfiguration,
+                new TelemetryParams(Map.of("enabled", true)));
+    }
+
+    private static FlowCall flowCall(String flowName) {
+        Location location = Location.builder().fileName("concord.yaml").lineNum(1).column(1).build();
+        return new FlowCall(location, flowName, FlowCallOptions.builder().build());
+    }
+
+    /**
+     * Creates a runtime which evaluates every expression to {@code flow-<number of evaluations>}.
+     */
+    private static Runtime runtime(AtomicInteger evals) {
+        Context ctx = proxy(Context.class, (p, method, args) -> {
+            if (method.getName().equals("eval")) {
+                return "flow-" + evals.incrementAndGet();
+            }
+            return null;
+        });
+        ContextFactory contextFactory = proxy(ContextFactory.class, (p, method, args) -> ctx);
+        return proxy(Runtime.class, (p, method, args) -> contextFactory);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(StepNameCacheTest.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
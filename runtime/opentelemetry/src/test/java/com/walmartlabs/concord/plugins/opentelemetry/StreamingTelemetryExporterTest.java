@@ -0,0 +1,95 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingTelemetryExporterTest {
+
+    @Test
+    public void test() {
+        TelemetryParams params = new TelemetryParams(Map.of("enabled", true, "streaming", true));
+        FlowSteps flowSteps = new FlowSteps(UUID.randomUUID(), "default", System.currentTimeMillis(), List.of());
+        CollectingExporter collector = new CollectingExporter();
+
+        StepId parent = StepId.from(UUID.randomUUID());
+        StepId child = StepId.from(UUID.randomUUID(), 0);
+
+        try (StreamingTelemetryExporter exporter = new StreamingTelemetryExporter(params, flowSteps, collector)) {
+            flowSteps.onStepStart(parent, "Flow call: test", null, "concord.yaml", 1, "default");
+            flowSteps.onStepStart(child, "Task: log", parent, "concord.yaml", 5, "test");
+
+            exporter.onStepEnd(flowSteps.completeStep(child, true));
+            exporter.flush();
+
+            assertEquals(1, collector.spans.size());
+            assertEquals(1, flowSteps.steps().size());
+
+            SpanData span = collector.spans.get(0);
+            assertEquals(flowSteps.traceId(), span.getTraceId());
+            assertEquals(SpanIds.from(parent), span.getParentSpanId());
+
+            String traceId = exporter.finish(true);
+            assertEquals(flowSteps.traceId(), traceId);
+        }
+
+        assertEquals(3, collector.spans.size());
+        assertTrue(collector.spans.stream().allMatch(s -> s.getTraceId().equals(flowSteps.traceId())));
+        assertTrue(collector.spans.stream().anyMatch(s -> s.getSpanId().equals(flowSteps.rootSpanId())));
+    }
+
+    @Test
+    public void testStableSpanIds() {
+        UUID correlationId = UUID.randomUUID();
+
+        assertEquals(SpanIds.from(StepId.from(correlationId, 1)), SpanIds.from(StepId.from(correlationId, 1)));
+        assertNotEquals(SpanIds.from(StepId.from(correlationId, 1)), SpanIds.from(StepId.from(correlationId, 2)));
+        assertNotEquals(SpanIds.from(StepId.from(correlationId)), SpanIds.from(StepId.from(correlationId, 0)));
+    }
+
+    private static class CollectingExporter implements SpanExporter {
+
+        private final List<SpanData> spans = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public CompletableResultCode export(Collection<SpanData> spans) {
+            this.spans.addAll(spans);
+            return CompletableResultCode.ofSuccess();
+        }
+
+        @Override
+        public CompletableResultCode flush() {
+            return CompletableResultCode.ofSuccess();
+        }
+
+        @Override
+        public CompletableResultCode shutdown() {
+            return CompletableResultCode.ofSuccess();
+        }
+    }
+}
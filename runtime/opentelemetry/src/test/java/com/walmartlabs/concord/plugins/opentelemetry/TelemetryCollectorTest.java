@@ -0,0 +1,75 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.walmartlabs.concord.runtime.v2.model.Location;
+import com.walmartlabs.concord.runtime.v2.model.TaskCall;
+import com.walmartlabs.concord.runtime.v2.model.TaskCallOptions;
+import com.walmartlabs.concord.runtime.v2.runner.vm.TaskCallCommand;
+import com.walmartlabs.concord.runtime.v2.sdk.ProcessConfiguration;
+import com.walmartlabs.concord.svm.*;
+import com.walmartlabs.concord.svm.Runtime;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TelemetryCollectorTest {
+
+    @Test
+    public void testTraceParentDoesNotShadowFlowVariables() {
+        TelemetryParams params = new TelemetryParams(Map.of(
+                "enabled", true,
+                "propagation", true));
+
+        ProcessConfiguration processConfiguration = ProcessConfiguration.builder()
+                .entryPoint("default")
+                .build();
+
+        TelemetryCollector collector = new TelemetryCollector(new ObjectMapper(), null, UUID.randomUUID(), processConfiguration, params);
+        collector.beforeProcessStart(null, null);
+
+        State state = new InMemoryState(new NoopCommand());
+        ThreadId threadId = state.getRootThreadId();
+        Frame frame = state.peekFrame(threadId);
+        frame.setLocal("traceparent", "user value");
+
+        TaskCall step = new TaskCall(Location.builder().fileName("concord.yaml").lineNum(1).column(1).build(),
+                "concord", TaskCallOptions.builder().build());
+        collector.beforeCommand(null, null, state, threadId, new TaskCallCommand(UUID.randomUUID(), step));
+
+        assertEquals("user value", frame.getLocal("traceparent"));
+        assertNotNull(TraceParent.parse(frame.getLocal(TelemetryCollector.TRACE_PARENT_VARIABLE)));
+    }
+
+    private static class NoopCommand implements Command {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void eval(Runtime runtime, State state, ThreadId threadId) {
+            // do nothing
+        }
+    }
+}
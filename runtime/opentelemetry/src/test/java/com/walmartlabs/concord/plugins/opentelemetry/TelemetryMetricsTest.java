@@ -0,0 +1,95 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TelemetryMetricsTest {
+
+    @Test
+    public void test() {
+        FlowSteps flowSteps = new FlowSteps(UUID.randomUUID(), "default", System.currentTimeMillis(), List.of());
+        CollectingExporter exporter = new CollectingExporter();
+
+        try (TelemetryMetrics metrics = new TelemetryMetrics(flowSteps, exporter)) {
+            metrics.onTaskCall("log", 10, true);
+            metrics.onTaskCall("log", 30, true);
+            metrics.onTaskCall("http", 100, false);
+            metrics.onFlowCall("myFlow", 200, true);
+            metrics.flush();
+        }
+
+        MetricData taskDuration = exporter.find("concord.task.duration");
+        assertNotNull(taskDuration);
+
+        long count = taskDuration.getHistogramData().getPoints().stream()
+                .mapToLong(HistogramPointData::getCount)
+                .sum();
+        assertEquals(3, count);
+
+        assertNotNull(exporter.find("concord.flow.duration"));
+        assertEquals(4, exporter.find("concord.steps").getLongSumData().getPoints().iterator().next().getValue());
+        assertEquals(1, exporter.find("concord.errors").getLongSumData().getPoints().iterator().next().getValue());
+    }
+
+    private static class CollectingExporter implements MetricExporter {
+
+        private final List<MetricData> metrics = Collections.synchronizedList(new ArrayList<>());
+
+        MetricData find(String name) {
+            return metrics.stream()
+                    .filter(m -> m.getName().equals(name))
+                    .findFirst()
+                    .orElse(null);
+        }
+
+        @Override
+        public AggregationTemporality getAggregationTemporality(InstrumentType instrumentType) {
+            return AggregationTemporality.DELTA;
+        }
+
+        @Override
+        public CompletableResultCode export(Collection<MetricData> metrics) {
+            this.metrics.addAll(metrics);
+            return CompletableResultCode.ofSuccess();
+        }
+
+        @Override
+        public CompletableResultCode flush() {
+            return CompletableResultCode.ofSuccess();
+        }
+
+        @Override
+        public CompletableResultCode shutdown() {
+            return CompletableResultCode.ofSuccess();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.walmartlabs.concord.plugins.opentelemetry;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2024 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceParentTest {
+
+    private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+    private static final String SPAN_ID = "00f067aa0ba902b7";
+
+    @Test
+    public void testParse() {
+        TraceParent p = TraceParent.parse("00-" + TRACE_ID + "-" + SPAN_ID + "-01");
+        assertNotNull(p);
+        assertEquals(TRACE_ID, p.traceId());
+        assertEquals(SPAN_ID, p.spanId());
+        assertEquals("00-" + TRACE_ID + "-" + SPAN_ID + "-01", p.format());
+
+        assertNull(TraceParent.parse(null));
+        assertNull(TraceParent.parse(123));
+        assertNull(TraceParent.parse("garbage"));
+        assertNull(TraceParent.parse("00-00000000000000000000000000000000-" + SPAN_ID + "-01"));
+        assertNull(TraceParent.parse("00-" + TRACE_ID + "-0000000000000000-01"));
+        assertNull(TraceParent.parse("ff-" + TRACE_ID + "-" + SPAN_ID + "-01"));
+    }
+
+    @Test
+    public void testProcessSpanParent() {
+        FlowSteps flowSteps = new FlowSteps(UUID.randomUUID(), "default", 0, TRACE_ID, null, SPAN_ID, List.of());
+
+        SpanData span = TelemetryExporter.toProcessSpan(flowSteps, Resource.empty(), true, 1, null).toSpanData();
+
+        assertEquals(TRACE_ID, span.getTraceId());
+        assertEquals(SPAN_ID, span.getParentSpanId());
+        assertEquals(flowSteps.rootSpanId(), span.getSpanId());
+    }
+}
@@ -27,21 +27,89 @@ import com.walmartlabs.concord.repository.GitClientConfiguration;
 import com.walmartlabs.concord.repository.ImmutableGitClientConfiguration;
 import com.walmartlabs.concord.sdk.Secret;
 import com.walmartlabs.concord.common.AuthTokenProvider;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.StoredConfig;
 import org.immutables.value.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.List;
 
 public class GitCliClient implements GitClient {
 
+    private static final Logger log = LoggerFactory.getLogger(GitCliClient.class);
+
     private final boolean shallowClone;
+    private final GitMirrorCache mirrorCache;
+    private final GitCloneOptions options;
 
     public GitCliClient(boolean shallowClone) {
-        this.shallowClone = shallowClone;
+        this(shallowClone, null, GitCloneOptions.builder().build());
+    }
+
+    public GitCliClient(boolean shallowClone, GitMirrorCache mirrorCache, GitCloneOptions options) {
+        // the fetch supports only the latest commit or the full history
+        this.shallowClone = shallowClone || (Integer.valueOf(1).equals(options.depth()) && options.shallowSince() == null);
+        this.mirrorCache = mirrorCache;
+        this.options = options;
+
+        if (!this.shallowClone && options.isShallow()) {
+            log.warn("'depth' greater than 1 and 'shallowSince' are not supported by the git CLI client, fetching the full history");
+        }
+    }
+
+    @Override
+    public void cloneRepo(String uri, String branchName, Secret secret, Path dst) throws Exception {
+        boolean useMirror = false;
+        if (mirrorCache != null || options.filter() != null || !options.sparsePaths().isEmpty()) {
+            try (Git git = Git.init().setDirectory(dst.toFile()).call()) {
+                Path mirror = mirrorCache != null ? mirrorCache.update(uri, JGitClient.createTransportConfigCallback(secret)) : null;
+                if (mirror != null) {
+                    // the same as `git clone --reference`: the objects present in the mirror are not downloaded
+                    GitMirrorCache.addAlternate(dst.resolve(".git"), mirror);
+                    useMirror = true;
+                }
+
+                if (options.filter() != null) {
+                    // the same as `git clone --filter`: fetches from the promisor remote use the filter,
+                    // the missing objects are fetched on demand
+                    StoredConfig cfg = git.getRepository().getConfig();
+                    cfg.setInt("core", null, "repositoryformatversion", 1);
+                    cfg.setString("extensions", null, "partialclone", "origin");
+                    cfg.setBoolean("remote", "origin", "promisor", true);
+                    cfg.setString("remote", "origin", "partialclonefilter", options.filter());
+                    cfg.save();
+                }
+
+                if (!options.sparsePaths().isEmpty()) {
+                    // applied by the checkout after the fetch
+                    SparseCheckout.configure(git.getRepository(), options.sparsePaths());
+                }
+            }
+        }
+
+        fetch(uri, branchName, secret, dst);
+
+        if (useMirror && mirrorCache.dissociate()) {
+            // the same as `git clone --dissociate`
+            exec(dst, "git", "repack", "-a", "-d", "-q");
+            GitMirrorCache.removeAlternate(dst.resolve(".git"));
+        }
     }
 
+    /**
+     * The fetch of the git CLI client works with existing repositories: the ref
+     * is fetched and checked out, local changes are discarded.
+     */
     @Override
-    public void cloneRepo(String uri, String branchName, Secret secret, Path dst) {
+    public void updateRepo(String uri, String ref, List<String> branches, Secret secret, Path dst) throws Exception {
+        cloneRepo(uri, ref, secret, dst);
+    }
+
+    private void fetch(String uri, String branchName, Secret secret, Path dst) {
         ImmutableGitClientConfiguration.Builder cfg = GitClientConfiguration.builder()
                 .httpLowSpeedLimit(0)
                 .sshTimeout(Duration.ofSeconds(600));
@@ -68,6 +136,19 @@ public class GitCliClient implements GitClient {
                         .build());
     }
 
+    private static void exec(Path workDir, String... cmd) throws Exception {
+        Process p = new ProcessBuilder(cmd)
+                .directory(workDir.toFile())
+                .redirectErrorStream(true)
+                .start();
+
+        String output = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        int code = p.waitFor();
+        if (code != 0) {
+            throw new RuntimeException("Error while executing '" + String.join(" ", cmd) + "' (" + code + "): " + output);
+        }
+    }
+
     @Value.Immutable
     interface OauthTokenConfigImpl extends OauthTokenConfig {
         static ImmutableOauthTokenConfigImpl.Builder builder() {
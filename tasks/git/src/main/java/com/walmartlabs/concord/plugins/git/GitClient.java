@@ -23,8 +23,16 @@ package com.walmartlabs.concord.plugins.git;
 import com.walmartlabs.concord.sdk.Secret;
 
 import java.nio.file.Path;
+import java.util.List;
 
 public interface GitClient {
 
     void cloneRepo(String uri, String branchName, Secret secret, Path dst) throws Exception;
+
+    /**
+     * Updates an existing clone of the repository, see {@link GitWorkingCopy}.
+     *
+     * @param branches other branches required by the action
+     */
+    void updateRepo(String uri, String ref, List<String> branches, Secret secret, Path dst) throws Exception;
 }
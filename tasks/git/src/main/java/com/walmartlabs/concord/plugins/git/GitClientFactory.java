@@ -22,17 +22,29 @@ package com.walmartlabs.concord.plugins.git;
 
 import com.walmartlabs.concord.sdk.MapUtils;
 
+import java.nio.file.Paths;
 import java.util.Map;
 
 public final class GitClientFactory {
 
     public static GitClient create(Map<String, Object> in) {
         boolean useJGit = MapUtils.getBoolean(in, "useJGit", true);
+        GitMirrorCache mirrorCache = createMirrorCache(in);
+        GitCloneOptions options = GitCloneOptions.from(in);
         if (useJGit) {
-            return new JGitClient();
+            return new JGitClient(mirrorCache, options);
         }
 
-        return new GitCliClient(isShallowClone(in));
+        return new GitCliClient(isShallowClone(in), mirrorCache, options);
+    }
+
+    private static GitMirrorCache createMirrorCache(Map<String, Object> in) {
+        String cacheDir = MapUtils.getString(in, "mirrorCacheDir");
+        if (cacheDir == null) {
+            return null;
+        }
+
+        return new GitMirrorCache(Paths.get(cacheDir), MapUtils.getBoolean(in, "mirrorCacheDissociate", true));
     }
 
     private static boolean isShallowClone(Map<String, Object> in) {
@@ -0,0 +1,120 @@
+package com.walmartlabs.concord.plugins.git;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2020 Walmart Inc.
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import com.walmartlabs.concord.sdk.MapUtils;
+import org.immutables.value.Value;
+
+import javax.annotation.Nullable;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Options limiting the amount of history and objects downloaded by a clone.
+ */
+@Value.Immutable
+@Value.Style(jdkOnly = true)
+public interface GitCloneOptions {
+
+    Pattern FILTER_PATTERN = Pattern.compile("blob:none|blob:limit=\\d+[kmg]?|tree:\\d+");
+
+    /**
+     * Number of commits to fetch from the tip of each ref.
+     */
+    @Nullable
+    Integer depth();
+
+    /**
+     * Fetch only the commits after the specified time.
+     */
+    @Nullable
+    Instant shallowSince();
+
+    /**
+     * Partial clone filter, e.g. {@code blob:none} or {@code tree:0}.
+     */
+    @Nullable
+    String filter();
+
+    /**
+     * Directories to check out (cone-mode sparse checkout), all files if empty.
+     */
+    List<String> sparsePaths();
+
+    @Value.Check
+    default void check() {
+        if (depth() != null && depth() <= 0) {
+            throw new IllegalArgumentException("Invalid 'depth' value, expected a positive number: " + depth());
+        }
+
+        if (filter() != null && !FILTER_PATTERN.matcher(filter()).matches()) {
+            throw new IllegalArgumentException("Invalid 'filter' value, expected 'blob:none', 'blob:limit=<n>' or 'tree:<depth>': " + filter());
+        }
+    }
+
+    default boolean isShallow() {
+        return depth() != null || shallowSince() != null;
+    }
+
+    static ImmutableGitCloneOptions.Builder builder() {
+        return ImmutableGitCloneOptions.builder();
+    }
+
+    static GitCloneOptions from(Map<String, Object> in) {
+        Number depth = MapUtils.get(in, "depth", null, Number.class);
+
+        return builder()
+                .depth(depth != null ? depth.intValue() : null)
+                .shallowSince(toInstant(in.get("shallowSince")))
+                .filter(MapUtils.getString(in, "filter"))
+                .sparsePaths(SparseCheckout.normalize(Utils.getStringList(in, "sparsePaths")))
+                .build();
+    }
+
+    private static Instant toInstant(Object v) {
+        if (v == null) {
+            return null;
+        } else if (v instanceof Date d) {
+            return d.toInstant();
+        } else if (v instanceof OffsetDateTime t) {
+            return t.toInstant();
+        } else if (v instanceof String s) {
+            try {
+                return OffsetDateTime.parse(s).toInstant();
+            } catch (DateTimeParseException e) {
+                try {
+                    return LocalDate.parse(s).atStartOfDay(ZoneOffset.UTC).toInstant();
+                } catch (DateTimeParseException ignored) {
+                    throw new IllegalArgumentException("Invalid 'shallowSince' value, expected an ISO-8601 date or date-time: " + s);
+                }
+            }
+        }
+
+        throw new IllegalArgumentException("Invalid 'shallowSince' value, expected a date or a string: " + v);
+    }
+}
@@ -0,0 +1,225 @@
+package com.walmartlabs.concord.plugins.git;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2020 Walmart Inc.
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import com.walmartlabs.concord.common.IOUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.TransportConfigCallback;
+import org.eclipse.jgit.transport.RefSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Agent-wide cache of bare mirrors of remote repositories.
+ * <p>
+ * Each remote URL gets a bare repository in the cache directory. The mirror
+ * is refreshed with a fetch before each clone, working clones are created
+ * from the mirror and only the new objects are downloaded from the remote.
+ * <p>
+ * Updates of the same mirror are serialized with a file lock, so the cache
+ * can be shared by all processes running on the same host. If the lock
+ * can't be acquired in time, the repository is cloned without the mirror.
+ */
+public class GitMirrorCache {
+
+    private static final Logger log = LoggerFactory.getLogger(GitMirrorCache.class);
+
+    private static final List<RefSpec> MIRROR_REFSPECS = List.of(
+            new RefSpec("+refs/heads/*:refs/heads/*"),
+            new RefSpec("+refs/tags/*:refs/tags/*"));
+
+    private static final long DEFAULT_LOCK_TIMEOUT_MILLIS = 5 * 60 * 1000;
+    private static final long LOCK_RETRY_MILLIS = 100;
+
+    /**
+     * File locks are held on behalf of the whole JVM, threads of the same JVM
+     * are serialized separately. Mirrors are mapped to a fixed number of stripes.
+     */
+    private static final ReentrantLock[] LOCKS = new ReentrantLock[64];
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++) {
+            LOCKS[i] = new ReentrantLock();
+        }
+    }
+
+    private final Path cacheDir;
+    private final boolean dissociate;
+    private final long lockTimeoutMillis;
+
+    public GitMirrorCache(Path cacheDir, boolean dissociate) {
+        this(cacheDir, dissociate, DEFAULT_LOCK_TIMEOUT_MILLIS);
+    }
+
+    public GitMirrorCache(Path cacheDir, boolean dissociate, long lockTimeoutMillis) {
+        this.cacheDir = cacheDir;
+        this.dissociate = dissociate;
+        this.lockTimeoutMillis = lockTimeoutMillis;
+    }
+
+    /**
+     * @return {@code true} if the working clones must not depend on the
+     * mirror's objects (i.e. the objects are copied into the clone)
+     */
+    public boolean dissociate() {
+        return dissociate;
+    }
+
+    /**
+     * Creates or refreshes the mirror of the specified repository.
+     *
+     * @return path to the bare mirror repository or {@code null} if the mirror
+     * is locked by another update for longer than the lock timeout
+     */
+    @Nullable
+    public Path update(String uri, TransportConfigCallback transportConfigCallback) throws Exception {
+        String key = key(uri);
+        Path mirror = cacheDir.resolve(key + ".git");
+        Path lockFile = cacheDir.resolve(key + ".lock");
+
+        Files.createDirectories(cacheDir);
+
+        long deadline = System.currentTimeMillis() + lockTimeoutMillis;
+
+        ReentrantLock lock = LOCKS[Math.floorMod(lockFile.hashCode(), LOCKS.length)];
+        if (!lock.tryLock(lockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            log.warn("Can't lock the mirror of '{}' in {} ms, cloning without the mirror", uri, lockTimeoutMillis);
+            return null;
+        }
+
+        try (FileChannel ch = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock fileLock = tryLock(ch, deadline)) {
+
+            if (fileLock == null) {
+                log.warn("Can't lock the mirror of '{}' in {} ms, cloning without the mirror", uri, lockTimeoutMillis);
+                return null;
+            }
+
+            if (Files.exists(mirror)) {
+                fetch(uri, mirror, transportConfigCallback);
+            } else {
+                create(uri, mirror, transportConfigCallback);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return mirror;
+    }
+
+    @Nullable
+    private static FileLock tryLock(FileChannel ch, long deadline) throws IOException, InterruptedException {
+        while (true) {
+            try {
+                FileLock result = ch.tryLock();
+                if (result != null) {
+                    return result;
+                }
+            } catch (OverlappingFileLockException e) {
+                // held by this JVM outside the update
+            }
+
+            if (System.currentTimeMillis() >= deadline) {
+                return null;
+            }
+
+            Thread.sleep(LOCK_RETRY_MILLIS);
+        }
+    }
+
+    /**
+     * Makes the objects of the mirror available to the specified repository.
+     *
+     * @param gitDir the {@code .git} directory of the repository
+     */
+    public static void addAlternate(Path gitDir, Path mirror) throws IOException {
+        Path alternates = gitDir.resolve("objects").resolve("info").resolve("alternates");
+        Files.createDirectories(alternates.getParent());
+        Files.writeString(alternates, mirror.resolve("objects").toAbsolutePath() + "\n", StandardCharsets.UTF_8);
+    }
+
+    public static void removeAlternate(Path gitDir) throws IOException {
+        Files.deleteIfExists(gitDir.resolve("objects").resolve("info").resolve("alternates"));
+    }
+
+    private static void fetch(String uri, Path mirror, TransportConfigCallback transportConfigCallback) throws Exception {
+        log.info("Updating the mirror of '{}'...", uri);
+
+        try (Git git = Git.open(mirror.toFile())) {
+            git.fetch()
+                    .setRemote(uri)
+                    .setRefSpecs(MIRROR_REFSPECS)
+                    .setRemoveDeletedRefs(true)
+                    .setTransportConfigCallback(transportConfigCallback)
+                    .call();
+        }
+    }
+
+    private static void create(String uri, Path mirror, TransportConfigCallback transportConfigCallback) throws Exception {
+        log.info("Creating a mirror of '{}'...", uri);
+
+        // clone into a temporary directory, the mirror appears only after a successful clone
+        Path tmp = Files.createTempDirectory(mirror.getParent(), mirror.getFileName() + ".tmp");
+        try {
+            Git.cloneRepository()
+                    .setURI(uri)
+                    .setDirectory(tmp.toFile())
+                    .setBare(true)
+                    .setCloneAllBranches(true)
+                    .setTransportConfigCallback(transportConfigCallback)
+                    .call()
+                    .close();
+
+            Files.move(tmp, mirror, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            if (Files.exists(tmp)) {
+                IOUtils.deleteRecursively(tmp);
+            }
+        }
+    }
+
+    static String key(String uri) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] digest = md.digest(uri.trim().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
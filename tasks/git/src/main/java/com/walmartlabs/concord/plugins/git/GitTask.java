@@ -67,14 +67,18 @@ public class GitTask {
     public static final String GIT_COMMITTER_EMAIL = "commitEmail";
     public static final String GIT_COMMITTER_USERNAME = "commitUsername";
     public static final String GIT_DESTINATION_BRANCH = "destinationBranch";
+    public static final String GIT_INCREMENTAL_SCAN = "incrementalScan";
     public static final String GIT_INIT_BRANCH = "initBranch";
     public static final String GIT_NEW_BRANCH_NAME = "newBranch";
     public static final String GIT_PASSWORD = "password";
+    public static final String GIT_PATHS = "paths";
+    public static final String GIT_PATHSPEC = "pathspec";
     public static final String GIT_PRIVATE_KEY = "privateKey";
     public static final String GIT_PUSH_CHANGES_TO_ORIGIN = "pushChanges";
     public static final String GIT_PUSH_NEW_BRANCH_TO_ORIGIN = "pushBranch";
     public static final String GIT_SOURCE_BRANCH = "sourceBranch";
     public static final String GIT_TOKEN = "token";
+    public static final String GIT_UPDATE_IN_PLACE = "updateInPlace";
     public static final String GIT_URL = "url";
     public static final String GIT_USER_NAME = "username";
     public static final String GIT_WORKING_DIR = "workingDir";
@@ -86,6 +90,7 @@ public class GitTask {
     public static final String OK_KEY = "ok";
     public static final String ERROR_KEY = "error";
     public static final String HEAD_SHA = "headSHA";
+    public static final String SCAN_MILLIS_KEY = "scanMillis";
 
     private static final String DEFAULT_REMOTE = "origin";
 
@@ -241,19 +246,23 @@ public class GitTask {
         Secret secret = getSecret(in);
         boolean ignoreErrors = isIgnoreErrors(in);
         TransportConfigCallback transportCallback = JGitClient.createTransportConfigCallback(secret);
+        List<String> paths = WorkingTreeChanges.normalize(getPaths(in));
 
+        WorkingTreeChanges.Result scan = null;
         try (Git git = Git.open(dstDir.toFile())) {
             log.info("Scanning folder for changes.");
-            git.add().addFilepattern(".").call();
-            git.add().setUpdate(true).addFilepattern(".").call();
-            org.eclipse.jgit.api.Status status = git.status().call();
-            if (status.getUncommittedChanges().isEmpty() && !allowEmptyCommit) {
+            // JGit's `add` would stage the deletion of the paths outside a sparse checkout
+            boolean incremental = getBoolean(in, GIT_INCREMENTAL_SCAN, false) || SparseCheckout.isEnabled(git.getRepository());
+            scan = WorkingTreeChanges.stage(git, paths, incremental);
+            log.info("Scanned for changes in {}ms", scan.scanMillis());
+
+            if (scan.changes().isEmpty() && !allowEmptyCommit) {
                 log.warn("No changes detected on your local git repo.Skipping git commit and git push actions.");
-                return toResult(true, ResultStatus.NO_CHANGES, "", Collections.emptySet(), getHeadSHA(dstDir));
+                return toResult(true, ResultStatus.NO_CHANGES, "", Collections.emptySet(), getHeadSHA(dstDir), scan);
             }
 
             Map<String, Object> commitResult;
-            log.info("Changes detected in the following files: {}", status.getUncommittedChanges());
+            log.info("Changes detected in the following files: {}", scan.changes());
 
             if (dryRunMode) {
                 log.info("Dry-run mode enabled: Skipping real commit");
@@ -268,10 +277,10 @@ public class GitTask {
             try {
                 commitCommand.call();
                 log.info("Committer userid and email are '{}', '{}'", committerUId, committerEmail);
-                commitResult = toResult(true, ResultStatus.SUCCESS, "", status.getUncommittedChanges(), getHeadSHA(dstDir));
+                commitResult = toResult(true, ResultStatus.SUCCESS, "", scan.changes(), getHeadSHA(dstDir), scan);
             } catch (Exception e) {
                 String error = "Problem committing changes.\n" + e.getMessage();
-                return handleError(error, e, in, null, secret, status.getUncommittedChanges(), () -> getHeadSHA(dstDir));
+                return withScan(handleError(error, e, in, null, secret, scan.changes(), () -> getHeadSHA(dstDir)), scan);
             }
 
             if (!pushChangesToOrigin) {
@@ -310,7 +319,7 @@ public class GitTask {
                             throw new IllegalArgumentException(error);
                         }
 
-                        return toResult(false, ResultStatus.FAILURE, error, status.getUncommittedChanges(), getHeadSHA(dstDir));
+                        return toResult(false, ResultStatus.FAILURE, error, scan.changes(), getHeadSHA(dstDir), scan);
                     }
                     case REJECTED_NONFASTFORWARD: {
                         String error = "failed to push some refs to origin'\n" +
@@ -322,7 +331,7 @@ public class GitTask {
                             throw new IllegalArgumentException(error);
                         }
 
-                        return toResult(false, ResultStatus.FAILURE, error, status.getUncommittedChanges(), getHeadSHA(dstDir));
+                        return toResult(false, ResultStatus.FAILURE, error, scan.changes(), getHeadSHA(dstDir), scan);
                     }
                     case UP_TO_DATE: {
                         String error = "Everything up-to-date. Nothing to push to origin. Status Code:" + pushStatus;
@@ -330,11 +339,11 @@ public class GitTask {
                             throw new IllegalArgumentException(error);
                         }
 
-                        return toResult(false, ResultStatus.FAILURE, error, status.getUncommittedChanges(), getHeadSHA(dstDir));
+                        return toResult(false, ResultStatus.FAILURE, error, scan.changes(), getHeadSHA(dstDir), scan);
                     }
                     case OK: {
                         log.info("Successfully pushed the changes to origin");
-                        return toResult(true, ResultStatus.SUCCESS, "", status.getUncommittedChanges(), getHeadSHA(dstDir));
+                        return toResult(true, ResultStatus.SUCCESS, "", scan.changes(), getHeadSHA(dstDir), scan);
                     }
                 }
             }
@@ -342,7 +351,7 @@ public class GitTask {
             return Collections.emptyMap();
         } catch (Exception e) {
             String error = "Exception occurred while accessing the git repo or while pushing the changes to origi";
-            return handleError(error, e, in, null, secret, Collections.emptySet(), () -> getHeadSHA(dstDir));
+            return withScan(handleError(error, e, in, null, secret, Collections.emptySet(), () -> getHeadSHA(dstDir)), scan);
         }
     }
 
@@ -357,14 +366,21 @@ public class GitTask {
 
         Path dstDir = prepareTargetDirectory(in);
 
-        log.info("Cloning {} to {}...", uri, dstDir);
-
         Secret secret = getSecret(in);
-        GitClient client = GitClientFactory.create(in);
+
+        GitWorkingCopy.State workingCopy;
         try {
-            client.cloneRepo(uri, baseRef, secret, dstDir);
+            workingCopy = inspectWorkingCopy(in, uri, dstDir);
         } catch (Exception e) {
-            return handleError("Error while cloning the repository", e, in, dstDir, secret);
+            return handleError("Can't use the destination directory", e, in, null, secret);
+        }
+
+        // on errors, remove only the directories created by this action
+        Path cleanupDir = workingCopy == GitWorkingCopy.State.EMPTY ? dstDir : null;
+        try {
+            checkoutRepo(in, uri, baseRef, List.of(), secret, dstDir, workingCopy);
+        } catch (Exception e) {
+            return handleError("Error while cloning the repository", e, in, cleanupDir, secret);
         }
 
         if (dryRunMode) {
@@ -390,7 +406,7 @@ public class GitTask {
             }
             return toResult(true, ResultStatus.SUCCESS, "", Collections.emptySet(), getHeadSHA(dstDir));
         } catch (Exception e) {
-            return handleError("Error while creating the branch", e, in, dstDir, secret);
+            return handleError("Error while creating the branch", e, in, cleanupDir, secret);
         }
     }
 
@@ -400,15 +416,21 @@ public class GitTask {
         String destinationBranch = assertString(in, GIT_DESTINATION_BRANCH);
         Path dstDir = prepareTargetDirectory(in);
 
-        log.info("Cloning {} to {}...", uri, dstDir);
-
         Secret secret = getSecret(in);
 
-        GitClient client = GitClientFactory.create(in);
+        GitWorkingCopy.State workingCopy;
         try {
-            client.cloneRepo(uri, destinationBranch, secret, dstDir);
+            workingCopy = inspectWorkingCopy(in, uri, dstDir);
         } catch (Exception e) {
-            return handleError("Error while cloning the repository", e, in, dstDir, secret);
+            return handleError("Can't use the destination directory", e, in, null, secret);
+        }
+
+        // on errors, remove only the directories created by this action
+        Path cleanupDir = workingCopy == GitWorkingCopy.State.EMPTY ? dstDir : null;
+        try {
+            checkoutRepo(in, uri, destinationBranch, List.of(sourceBranch), secret, dstDir, workingCopy);
+        } catch (Exception e) {
+            return handleError("Error while cloning the repository", e, in, cleanupDir, secret);
         }
 
         if (dryRunMode) {
@@ -461,10 +483,14 @@ public class GitTask {
                 }
             }
         } catch (Exception e) {
-            return handleError("Error while merging a repository", e, in, dstDir, secret);
+            return handleError("Error while merging a repository", e, in, cleanupDir, secret);
         }
     }
 
+    private static List<String> getPaths(Map<String, Object> in) {
+        return Utils.getStringList(in, in.containsKey(GIT_PATHS) ? GIT_PATHS : GIT_PATHSPEC);
+    }
+
     private static String getDest(Map<String, Object> in) {
         String s = getString(in, GIT_WORKING_DIR, null);
         if (s != null) {
@@ -491,6 +517,42 @@ public class GitTask {
         return p;
     }
 
+    /**
+     * In the "update in place" mode, checks if the target directory can be reused.
+     * Without it, the directory is expected to be empty.
+     */
+    private static GitWorkingCopy.State inspectWorkingCopy(Map<String, Object> in, String uri, Path dstDir) throws Exception {
+        if (!getBoolean(in, GIT_UPDATE_IN_PLACE, false)) {
+            return GitWorkingCopy.State.EMPTY;
+        }
+        return GitWorkingCopy.inspect(dstDir, uri, GitCloneOptions.from(in).sparsePaths());
+    }
+
+    /**
+     * Clones the repository or updates the existing clone in the target directory.
+     */
+    private static void checkoutRepo(Map<String, Object> in, String uri, String ref, List<String> branches, Secret secret, Path dstDir,
+                                     GitWorkingCopy.State workingCopy) throws Exception {
+
+        switch (workingCopy) {
+            case CLONE -> {
+                GitClientFactory.create(in).updateRepo(uri, ref, branches, secret, dstDir);
+                return;
+            }
+            case STALE_CLONE -> {
+                // a clone of the same repository, safe to replace
+                log.info("'{}' can't be updated in place, cloning the repository again", dstDir);
+                IOUtils.deleteRecursively(dstDir);
+                Files.createDirectories(dstDir);
+            }
+            case EMPTY -> {
+            }
+        }
+
+        log.info("Cloning {} to {}...", uri, dstDir);
+        GitClientFactory.create(in).cloneRepo(uri, ref, secret, dstDir);
+    }
+
     private Path exportPrivateKey(Map<String, Object> in) throws Exception {
         Map<String, Object> m = MapUtils.getMap(in, GIT_PRIVATE_KEY, null);
         if (m == null) {
@@ -590,6 +652,21 @@ public class GitTask {
         return result;
     }
 
+    private static Map<String, Object> toResult(boolean ok, ResultStatus resultStatus, String error, Set<String> changeList, String headSHA,
+                                                WorkingTreeChanges.Result scan) {
+        return withScan(toResult(ok, resultStatus, error, changeList, headSHA), scan);
+    }
+
+    /**
+     * Adds the scan timing to the result, if the scan was completed.
+     */
+    private static Map<String, Object> withScan(Map<String, Object> result, WorkingTreeChanges.Result scan) {
+        if (scan != null) {
+            result.put(SCAN_MILLIS_KEY, scan.scanMillis());
+        }
+        return result;
+    }
+
     /**
      * Gets the HEAD SHA value for a given git repository
      *
@@ -0,0 +1,291 @@
+package com.walmartlabs.concord.plugins.git;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2020 Walmart Inc.
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import org.eclipse.jgit.api.CreateBranchCommand;
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.api.TransportConfigCallback;
+import org.eclipse.jgit.api.errors.RefNotFoundException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.transport.RefSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+import static org.eclipse.jgit.lib.Constants.R_TAGS;
+
+/**
+ * Updates an existing clone instead of cloning the repository again.
+ */
+public final class GitWorkingCopy {
+
+    private static final Logger log = LoggerFactory.getLogger(GitWorkingCopy.class);
+
+    private static final String REMOTE = "origin";
+
+    public enum State {
+
+        /**
+         * The directory is empty.
+         */
+        EMPTY,
+
+        /**
+         * A clone of the repository, can be updated in place.
+         */
+        CLONE,
+
+        /**
+         * A clone of the repository with a different sparse checkout configuration.
+         */
+        STALE_CLONE
+    }
+
+    public static State inspect(Path dir, String uri) throws IOException {
+        return inspect(dir, uri, List.of());
+    }
+
+    /**
+     * @param sparsePaths the requested sparse checkout, see {@link GitCloneOptions#sparsePaths()}
+     * @throws IllegalStateException if the directory is not empty and is not a clone of the repository
+     */
+    public static State inspect(Path dir, String uri, List<String> sparsePaths) throws IOException {
+        if (!Files.exists(dir.resolve(".git"))) {
+            if (isEmpty(dir)) {
+                return State.EMPTY;
+            }
+            throw new IllegalStateException("Destination directory '" + dir.getFileName() + "' is not empty and is not a clone of " + uri);
+        }
+
+        try (Git git = Git.open(dir.toFile())) {
+            String origin = git.getRepository().getConfig().getString("remote", REMOTE, "url");
+            if (origin == null || !normalizeUrl(origin).equals(normalizeUrl(uri))) {
+                throw new IllegalStateException("Destination directory '" + dir.getFileName() + "' is a clone of " + origin + ", expected " + uri);
+            }
+
+            if (!SparseCheckout.isConfigured(git.getRepository(), sparsePaths)) {
+                return State.STALE_CLONE;
+            }
+        }
+
+        return State.CLONE;
+    }
+
+    /**
+     * Fetches the specified refs into a {@link State#CLONE clone} of the repository
+     * and checks out {@code ref}. Local changes are discarded, the result
+     * is the same as of a new clone.
+     *
+     * @param ref      branch, tag or commit ID to check out
+     * @param branches other branches required by the action
+     */
+    public static void update(Path dir, String uri, String ref, List<String> branches,
+                              TransportConfigCallback transportConfigCallback, GitCloneOptions options) throws Exception {
+
+        update(dir, uri, ref, branches, transportConfigCallback, options, null);
+    }
+
+    /**
+     * @param mirror the mirror of the repository to fetch from, see {@link GitMirrorCache}
+     */
+    public static void update(Path dir, String uri, String ref, List<String> branches,
+                              TransportConfigCallback transportConfigCallback, GitCloneOptions options,
+                              @Nullable Path mirror) throws Exception {
+
+        String source = mirror != null ? mirror.toUri().toString() : REMOTE;
+
+        try (Git git = Git.open(dir.toFile())) {
+            Repository repo = git.getRepository();
+
+            Set<String> names = new LinkedHashSet<>();
+            names.add(ref);
+            names.addAll(branches);
+
+            // fetch only the refs required by the action
+            Map<String, Ref> advertised = git.lsRemote()
+                    .setRemote(source)
+                    .setTransportConfigCallback(transportConfigCallback)
+                    .callAsMap();
+
+            List<RefSpec> refSpecs = new ArrayList<>();
+            boolean fetchAll = false;
+            for (String n : names) {
+                if (advertised.containsKey(R_HEADS + n)) {
+                    refSpecs.add(new RefSpec("+" + R_HEADS + n + ":" + GitTask.REFS_REMOTES + n));
+                } else if (advertised.containsKey(R_TAGS + n)) {
+                    refSpecs.add(new RefSpec("+" + R_TAGS + n + ":" + R_TAGS + n));
+                } else if (!isResolvable(repo, n)) {
+                    // a commit ID not fetched yet
+                    fetchAll = true;
+                }
+            }
+
+            if (fetchAll) {
+                refSpecs.add(new RefSpec("+" + R_HEADS + "*:" + GitTask.REFS_REMOTES + "*"));
+            }
+
+            if (!refSpecs.isEmpty()) {
+                log.info("Updating '{}' from {}...", dir, uri);
+
+                FetchCommand fetch = git.fetch()
+                        .setRemote(source)
+                        .setRefSpecs(refSpecs)
+                        .setTransportConfigCallback(transportConfigCallback);
+
+                if (options.depth() != null) {
+                    fetch.setDepth(options.depth());
+                }
+                if (options.shallowSince() != null) {
+                    fetch.setShallowSince(options.shallowSince());
+                }
+
+                fetch.call();
+            }
+
+            for (String n : names) {
+                if (!advertised.containsKey(R_HEADS + n) && !isResolvable(repo, n)) {
+                    throw new RefNotFoundException("Ref " + n + " cannot be resolved");
+                }
+            }
+
+            if (!options.sparsePaths().isEmpty()) {
+                // only the paths in the cone are written, local changes are discarded
+                updateHead(repo, ref, advertised.containsKey(R_HEADS + ref));
+                SparseCheckout.checkout(git, options.sparsePaths());
+                git.clean()
+                        .setCleanDirectories(true)
+                        .call();
+                return;
+            }
+
+            // drop unfinished merges and local changes
+            git.reset().setMode(ResetCommand.ResetType.HARD).call();
+
+            if (advertised.containsKey(R_HEADS + ref)) {
+                if (repo.findRef(R_HEADS + ref) == null) {
+                    git.checkout()
+                            .setCreateBranch(true)
+                            .setName(ref)
+                            .setStartPoint(REMOTE + "/" + ref)
+                            .setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.TRACK)
+                            .setForced(true)
+                            .call();
+                } else {
+                    git.checkout()
+                            .setName(ref)
+                            .setForced(true)
+                            .call();
+                }
+
+                git.reset()
+                        .setMode(ResetCommand.ResetType.HARD)
+                        .setRef(GitTask.REFS_REMOTES + ref)
+                        .call();
+            } else {
+                // a tag or a commit ID
+                git.checkout()
+                        .setName(ref)
+                        .setForced(true)
+                        .call();
+            }
+
+            git.clean()
+                    .setCleanDirectories(true)
+                    .call();
+        }
+    }
+
+    /**
+     * Points {@code HEAD} to the branch, tag or commit without touching the working tree.
+     */
+    private static void updateHead(Repository repo, String ref, boolean isBranch) throws IOException {
+        if (isBranch) {
+            RefUpdate branch = repo.updateRef(R_HEADS + ref);
+            branch.setNewObjectId(repo.resolve(GitTask.REFS_REMOTES + ref));
+            branch.forceUpdate();
+
+            StoredConfig cfg = repo.getConfig();
+            if (cfg.getString("branch", ref, "remote") == null) {
+                cfg.setString("branch", ref, "remote", REMOTE);
+                cfg.setString("branch", ref, "merge", R_HEADS + ref);
+                cfg.save();
+            }
+
+            repo.updateRef(Constants.HEAD).link(R_HEADS + ref);
+            return;
+        }
+
+        // a tag or a commit ID
+        RefUpdate head = repo.updateRef(Constants.HEAD, true);
+        head.setNewObjectId(repo.resolve(ref + "^{commit}"));
+        head.forceUpdate();
+    }
+
+    static String normalizeUrl(String url) {
+        String s = url.trim();
+        while (s.endsWith("/")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        if (s.endsWith(".git")) {
+            s = s.substring(0, s.length() - ".git".length());
+        }
+        return s;
+    }
+
+    private static boolean isResolvable(Repository repo, String name) throws IOException {
+        try {
+            return repo.resolve(name + "^{commit}") != null;
+        } catch (MissingObjectException e) {
+            return false;
+        }
+    }
+
+    private static boolean isEmpty(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return true;
+        }
+
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.findAny().isEmpty();
+        }
+    }
+
+    private GitWorkingCopy() {
+    }
+}
@@ -26,26 +26,71 @@ import com.jcraft.jsch.Session;
 import com.walmartlabs.concord.common.secret.KeyPair;
 import com.walmartlabs.concord.common.secret.UsernamePassword;
 import com.walmartlabs.concord.sdk.Secret;
+import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.CreateBranchCommand;
+import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.TransportConfigCallback;
+import org.eclipse.jgit.api.errors.RefNotFoundException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.transport.*;
 import org.eclipse.jgit.transport.ssh.jsch.JschConfigSessionFactory;
 import org.eclipse.jgit.transport.ssh.jsch.OpenSshConfig;
 import org.eclipse.jgit.util.FS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Properties;
 
 public class JGitClient implements GitClient {
 
+    private static final Logger log = LoggerFactory.getLogger(JGitClient.class);
+
+    private final GitMirrorCache mirrorCache;
+    private final GitCloneOptions options;
+
+    public JGitClient() {
+        this(null, GitCloneOptions.builder().build());
+    }
+
+    public JGitClient(GitMirrorCache mirrorCache, GitCloneOptions options) {
+        this.mirrorCache = mirrorCache;
+        this.options = options;
+
+        if (options.filter() != null) {
+            // JGit can serve partial clones, but can't create them
+            log.warn("Partial clone filter '{}' is not supported by JGit, ignoring. Use 'useJGit: false' to enable it", options.filter());
+        }
+    }
+
     @Override
     public void cloneRepo(String uri, String branchName, Secret secret, Path dst) throws Exception {
-        try (Git repo = Git.cloneRepository()
+        if (mirrorCache != null || !options.sparsePaths().isEmpty()) {
+            initAndFetch(uri, branchName, secret, dst);
+            return;
+        }
+
+        CloneCommand clone = Git.cloneRepository()
                 .setURI(uri)
                 .setBranch(branchName)
                 .setDirectory(dst.toFile())
-                .setTransportConfigCallback(createTransportConfigCallback(secret))
-                .call()) {
+                .setTransportConfigCallback(createTransportConfigCallback(secret));
+
+        if (options.depth() != null) {
+            clone.setDepth(options.depth());
+        }
+        if (options.shallowSince() != null) {
+            clone.setShallowSince(options.shallowSince());
+        }
+
+        try (Git repo = clone.call()) {
 
             // check if the branch actually exists
             if (branchName != null) {
@@ -56,6 +101,132 @@ public class JGitClient implements GitClient {
         }
     }
 
+    @Override
+    public void updateRepo(String uri, String ref, List<String> branches, Secret secret, Path dst) throws Exception {
+        TransportConfigCallback transportConfigCallback = createTransportConfigCallback(secret);
+        Path mirror = mirrorCache != null ? mirrorCache.update(uri, transportConfigCallback) : null;
+        GitWorkingCopy.update(dst, uri, ref, branches, transportConfigCallback, options, mirror);
+    }
+
+    /**
+     * The same as {@code clone}, but with control over the source of the objects
+     * (the mirror cache) and over the checkout (sparse checkout).
+     */
+    private void initAndFetch(String uri, String branchName, Secret secret, Path dst) throws Exception {
+        TransportConfigCallback transportConfigCallback = createTransportConfigCallback(secret);
+        Path mirror = mirrorCache != null ? mirrorCache.update(uri, transportConfigCallback) : null;
+
+        try (Git git = Git.init().setDirectory(dst.toFile()).call()) {
+            Repository repo = git.getRepository();
+            if (mirror != null && !mirrorCache.dissociate()) {
+                // the objects stay in the mirror, only the refs are fetched
+                GitMirrorCache.addAlternate(repo.getDirectory().toPath(), mirror);
+            }
+
+            FetchCommand fetch = git.fetch()
+                    .setRefSpecs(new RefSpec("+refs/heads/*:refs/remotes/origin/*"), new RefSpec("+refs/tags/*:refs/tags/*"));
+
+            if (mirror != null) {
+                fetch.setRemote(mirror.toUri().toString());
+            } else {
+                fetch.setRemote(uri)
+                        .setTransportConfigCallback(transportConfigCallback);
+            }
+
+            if (options.depth() != null) {
+                fetch.setDepth(options.depth());
+            }
+            if (options.shallowSince() != null) {
+                fetch.setShallowSince(options.shallowSince());
+            }
+
+            FetchResult fetchResult = fetch.call();
+
+            StoredConfig cfg = repo.getConfig();
+            cfg.setString("remote", "origin", "url", uri);
+            cfg.setString("remote", "origin", "fetch", "+refs/heads/*:refs/remotes/origin/*");
+            cfg.save();
+
+            if (branchName == null) {
+                branchName = defaultBranch(fetchResult);
+            }
+
+            if (options.sparsePaths().isEmpty()) {
+                checkout(git, branchName);
+            } else {
+                updateHead(git, branchName);
+                SparseCheckout.checkout(git, options.sparsePaths());
+            }
+        }
+    }
+
+    private static void checkout(Git git, String branchName) throws Exception {
+        if (git.getRepository().findRef(Constants.R_REMOTES + "origin/" + branchName) != null) {
+            git.checkout()
+                    .setCreateBranch(true)
+                    .setName(branchName)
+                    .setStartPoint("origin/" + branchName)
+                    .setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.TRACK)
+                    .call();
+        } else {
+            // a tag or a commit ID
+            git.checkout()
+                    .setName(branchName)
+                    .call();
+        }
+    }
+
+    /**
+     * Points {@code HEAD} to the branch, tag or commit without touching the working tree.
+     */
+    private static void updateHead(Git git, String branchName) throws Exception {
+        Repository repo = git.getRepository();
+        if (repo.findRef(Constants.R_REMOTES + "origin/" + branchName) != null) {
+            git.branchCreate()
+                    .setName(branchName)
+                    .setStartPoint("origin/" + branchName)
+                    .setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.TRACK)
+                    .call();
+
+            repo.updateRef(Constants.HEAD).link(Constants.R_HEADS + branchName);
+            return;
+        }
+
+        // a tag or a commit ID
+        ObjectId id = repo.resolve(branchName + "^{commit}");
+        if (id == null) {
+            throw new RefNotFoundException("Ref " + branchName + " cannot be resolved");
+        }
+
+        RefUpdate u = repo.updateRef(Constants.HEAD, true);
+        u.setNewObjectId(id);
+        u.forceUpdate();
+    }
+
+    private static String defaultBranch(FetchResult fetchResult) {
+        Ref head = fetchResult.getAdvertisedRef(Constants.HEAD);
+        if (head == null) {
+            throw new IllegalStateException("Can't determine the default branch of the repository");
+        }
+
+        if (head.isSymbolic()) {
+            return Repository.shortenRefName(head.getTarget().getName());
+        }
+
+        // the same as `clone`: a branch pointing to the same commit, master is preferred
+        Ref master = fetchResult.getAdvertisedRef(Constants.R_HEADS + Constants.MASTER);
+        if (master != null && head.getObjectId().equals(master.getObjectId())) {
+            return Constants.MASTER;
+        }
+
+        return fetchResult.getAdvertisedRefs().stream()
+                .filter(r -> r.getName().startsWith(Constants.R_HEADS))
+                .filter(r -> head.getObjectId().equals(r.getObjectId()))
+                .map(r -> Repository.shortenRefName(r.getName()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Can't determine the default branch of the repository"));
+    }
+
     public static TransportConfigCallback createTransportConfigCallback(Secret secret) {
         if (secret == null) {
             return null;
@@ -0,0 +1,180 @@
+package com.walmartlabs.concord.plugins.git;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2020 Walmart Inc.
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cone-mode sparse checkout: the files in the root directory, the files
+ * directly in the parents of the requested directories and everything
+ * under the requested directories.
+ * <p>
+ * JGit doesn't support sparse checkouts, so for JGit the paths outside the
+ * cone are kept in the index as "assume valid" and are not written to the
+ * working tree. The same configuration is stored in {@code .git/info/sparse-checkout}
+ * which the git CLI applies natively.
+ */
+final class SparseCheckout {
+
+    /**
+     * @return normalized directory names, without leading and trailing slashes
+     */
+    static List<String> normalize(List<String> paths) {
+        List<String> result = new ArrayList<>();
+        for (String p : paths) {
+            String s = Utils.normalizeRepositoryPath("sparsePaths", p);
+            if (s.isEmpty() || s.contains("*")) {
+                throw new IllegalArgumentException("Invalid 'sparsePaths' value, expected a directory path: '" + p + "'");
+            }
+            result.add(s);
+        }
+        return result;
+    }
+
+    /**
+     * Enables the sparse checkout in the repository's configuration.
+     */
+    static void configure(Repository repo, List<String> cones) throws IOException {
+        StoredConfig cfg = repo.getConfig();
+        cfg.setBoolean("core", null, "sparseCheckout", true);
+        cfg.setBoolean("core", null, "sparseCheckoutCone", true);
+        cfg.save();
+
+        Path patterns = repo.getDirectory().toPath().resolve("info").resolve("sparse-checkout");
+        Files.createDirectories(patterns.getParent());
+        Files.writeString(patterns, String.join("\n", patterns(cones)) + "\n", StandardCharsets.UTF_8);
+    }
+
+    static boolean isEnabled(Repository repo) {
+        return repo.getConfig().getBoolean("core", null, "sparseCheckout", false);
+    }
+
+    /**
+     * @return {@code true} if the repository has the same sparse checkout
+     * configuration, or no sparse checkout if {@code cones} is empty
+     */
+    static boolean isConfigured(Repository repo, List<String> cones) throws IOException {
+        if (!isEnabled(repo)) {
+            return cones.isEmpty();
+        }
+
+        Path patterns = repo.getDirectory().toPath().resolve("info").resolve("sparse-checkout");
+        if (cones.isEmpty() || !Files.exists(patterns)) {
+            return false;
+        }
+
+        return Files.readAllLines(patterns, StandardCharsets.UTF_8).stream()
+                .filter(l -> !l.isBlank())
+                .toList()
+                .equals(patterns(cones));
+    }
+
+    /**
+     * Populates the index from {@code HEAD} and writes only the paths in the cone.
+     */
+    static void checkout(Git git, List<String> cones) throws Exception {
+        Repository repo = git.getRepository();
+        configure(repo, cones);
+
+        // the index without the working tree
+        git.reset().setMode(ResetCommand.ResetType.MIXED).call();
+
+        List<String> paths = new ArrayList<>();
+        DirCache dc = repo.lockDirCache();
+        try {
+            for (int i = 0; i < dc.getEntryCount(); i++) {
+                DirCacheEntry e = dc.getEntry(i);
+                if (isInCone(e.getPathString(), cones)) {
+                    paths.add(e.getPathString());
+                } else {
+                    e.setAssumeValid(true);
+                }
+            }
+            dc.write();
+            dc.commit();
+        } finally {
+            dc.unlock();
+        }
+
+        if (!paths.isEmpty()) {
+            git.checkout().addPaths(paths).call();
+        }
+    }
+
+    static boolean isInCone(String path, List<String> cones) {
+        int slash = path.lastIndexOf('/');
+        if (slash < 0) {
+            return true;
+        }
+
+        String parent = path.substring(0, slash + 1);
+        for (String c : cones) {
+            String dir = c + "/";
+            if (path.startsWith(dir) || dir.startsWith(parent)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return patterns in the format of {@code git sparse-checkout set --cone}
+     */
+    static List<String> patterns(List<String> cones) {
+        Set<String> parents = new LinkedHashSet<>();
+        for (String c : cones) {
+            int i = c.indexOf('/');
+            while (i > 0) {
+                parents.add(c.substring(0, i));
+                i = c.indexOf('/', i + 1);
+            }
+        }
+
+        List<String> result = new ArrayList<>();
+        result.add("/*");
+        result.add("!/*/");
+        for (String p : parents) {
+            result.add("/" + p + "/");
+            result.add("!/" + p + "/*/");
+        }
+        for (String c : cones) {
+            result.add("/" + c + "/");
+        }
+        return result;
+    }
+
+    private SparseCheckout() {
+    }
+}
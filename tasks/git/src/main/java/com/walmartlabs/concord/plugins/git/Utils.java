@@ -27,6 +27,7 @@ import com.walmartlabs.concord.sdk.Secret;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.List;
 import java.util.Map;
 
 import static com.walmartlabs.concord.sdk.MapUtils.getString;
@@ -56,6 +57,49 @@ public final class Utils {
         return (Boolean) v;
     }
 
+    /**
+     * @return a list of strings, a single string value is returned as a list
+     */
+    @SuppressWarnings("unchecked")
+    public static List<String> getStringList(Map<String, Object> in, String k) {
+        Object v = in.get(k);
+        if (v == null) {
+            return List.of();
+        } else if (v instanceof String s) {
+            return List.of(s);
+        } else if (v instanceof List<?> l && l.stream().allMatch(String.class::isInstance)) {
+            return (List<String>) l;
+        }
+
+        throw new IllegalArgumentException("Expected a string or a list of strings '" + k + "', got " + v);
+    }
+
+    /**
+     * @return the path relative to the repository root, without leading and trailing slashes,
+     * an empty string for the root itself
+     */
+    public static String normalizeRepositoryPath(String k, String path) {
+        String s = path.trim().replace('\\', '/');
+        while (s.startsWith("./")) {
+            s = s.substring(2);
+        }
+        while (s.startsWith("/")) {
+            s = s.substring(1);
+        }
+        while (s.endsWith("/")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        if (s.equals(".")) {
+            s = "";
+        }
+
+        if (s.equals("..") || s.startsWith("../") || s.contains("/../") || s.endsWith("/..")) {
+            throw new IllegalArgumentException("Invalid '" + k + "' value, expected a path inside of the repository: '" + path + "'");
+        }
+
+        return s;
+    }
+
     public static String getUrl(Map<String, Object> defaults, Map<String, Object> in, String k) {
         String v = getString(in, k, (String) (defaults != null ? defaults.get(k) : null));
         if (v == null) {
@@ -0,0 +1,121 @@
+package com.walmartlabs.concord.plugins.git;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2020 Walmart Inc.
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import org.eclipse.jgit.api.AddCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.RmCommand;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.StatusCommand;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stages the changes in the working tree for a commit.
+ */
+final class WorkingTreeChanges {
+
+    /**
+     * @param changes    the uncommitted changes after staging
+     * @param scanMillis time spent scanning and staging
+     */
+    record Result(Set<String> changes, long scanMillis) {
+    }
+
+    /**
+     * @param paths       paths (files or directories) to stage, the whole working tree if empty
+     * @param incremental if {@code true} the working tree is scanned once, otherwise the same as
+     *                    {@code git add .; git add --update .; git status}
+     */
+    static Result stage(Git git, List<String> paths, boolean incremental) throws Exception {
+        long started = System.nanoTime();
+        Set<String> changes = incremental ? stageChanges(git, paths) : stageAll(git, paths);
+        return new Result(changes, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    /**
+     * @return normalized repository-relative paths, an empty list means the whole working tree
+     */
+    static List<String> normalize(List<String> paths) {
+        List<String> result = new ArrayList<>();
+        for (String p : paths) {
+            String s = Utils.normalizeRepositoryPath("paths", p);
+            if (s.isEmpty()) {
+                // the whole working tree
+                return List.of();
+            }
+            result.add(s);
+        }
+        return result;
+    }
+
+    private static Set<String> stageAll(Git git, List<String> paths) throws Exception {
+        List<String> patterns = paths.isEmpty() ? List.of(".") : paths;
+
+        AddCommand add = git.add();
+        patterns.forEach(add::addFilepattern);
+        add.call();
+
+        AddCommand update = git.add().setUpdate(true);
+        patterns.forEach(update::addFilepattern);
+        update.call();
+
+        StatusCommand status = git.status();
+        paths.forEach(status::addPath);
+        return status.call().getUncommittedChanges();
+    }
+
+    /**
+     * Scans the working tree once and stages only the reported changes.
+     * Unlike {@code add .}, it doesn't touch the paths outside of a sparse checkout.
+     */
+    private static Set<String> stageChanges(Git git, List<String> paths) throws Exception {
+        StatusCommand cmd = git.status();
+        paths.forEach(cmd::addPath);
+        Status status = cmd.call();
+
+        Set<String> added = new TreeSet<>(status.getUntracked());
+        added.addAll(status.getModified());
+        added.addAll(status.getConflicting());
+        if (!added.isEmpty()) {
+            AddCommand add = git.add();
+            added.forEach(add::addFilepattern);
+            add.call();
+        }
+
+        if (!status.getMissing().isEmpty()) {
+            RmCommand rm = git.rm().setCached(true);
+            status.getMissing().forEach(rm::addFilepattern);
+            rm.call();
+        }
+
+        Set<String> result = new TreeSet<>(status.getUncommittedChanges());
+        result.addAll(status.getUntracked());
+        return result;
+    }
+
+    private WorkingTreeChanges() {
+    }
+}
@@ -0,0 +1,136 @@
+package com.walmartlabs.concord.plugins.git;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2025 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GitMirrorCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path origin;
+    private String uri;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        origin = tempDir.resolve("origin");
+        uri = origin.toUri().toString();
+
+        try (Git git = Git.init().setDirectory(origin.toFile()).setInitialBranch("main").call()) {
+            commit(git, "a.txt", "a");
+        }
+    }
+
+    @Test
+    public void testCloneWithAlternates() throws Exception {
+        GitMirrorCache cache = new GitMirrorCache(tempDir.resolve("cache"), false);
+
+        Path dst = tempDir.resolve("first");
+        new JGitClient(cache, GitCloneOptions.builder().build()).cloneRepo(uri, null, null, dst);
+
+        assertEquals("a", Files.readString(dst.resolve("a.txt")));
+        assertTrue(Files.exists(dst.resolve(".git/objects/info/alternates")));
+
+        // new commits are fetched into the existing mirror
+        RevCommit second;
+        try (Git git = Git.open(origin.toFile())) {
+            git.branchCreate().setName("feature").call();
+            git.checkout().setName("feature").call();
+            second = commit(git, "b.txt", "b");
+        }
+
+        dst = tempDir.resolve("second");
+        new JGitClient(cache, GitCloneOptions.builder().build()).cloneRepo(uri, "feature", null, dst);
+
+        assertEquals("b", Files.readString(dst.resolve("b.txt")));
+        try (Git git = Git.open(dst.toFile())) {
+            assertEquals("feature", git.getRepository().getBranch());
+            assertEquals(second.getId(), git.getRepository().resolve("HEAD"));
+            assertEquals(uri, git.getRepository().getConfig().getString("remote", "origin", "url"));
+        }
+
+        try (var mirrors = Files.list(tempDir.resolve("cache"))) {
+            assertEquals(1, mirrors.filter(p -> p.toString().endsWith(".git")).count());
+        }
+    }
+
+    @Test
+    public void testCloneDissociated() throws Exception {
+        GitMirrorCache cache = new GitMirrorCache(tempDir.resolve("cache"), true);
+
+        Path dst = tempDir.resolve("dst");
+        new JGitClient(cache, GitCloneOptions.builder().build()).cloneRepo(uri, "main", null, dst);
+
+        assertEquals("a", Files.readString(dst.resolve("a.txt")));
+        assertFalse(Files.exists(dst.resolve(".git/objects/info/alternates")));
+    }
+
+    @Test
+    public void testCloneWithoutMirrorOnLockTimeout() throws Exception {
+        Path cacheDir = tempDir.resolve("cache");
+        GitMirrorCache cache = new GitMirrorCache(cacheDir, false, 200);
+        Path lockFile = cacheDir.resolve(GitMirrorCache.key(uri) + ".lock");
+
+        Files.createDirectories(cacheDir);
+        try (FileChannel ch = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock ignored = ch.lock()) {
+
+            assertNull(cache.update(uri, null));
+
+            Path dst = tempDir.resolve("dst");
+            new JGitClient(cache, GitCloneOptions.builder().build()).cloneRepo(uri, "main", null, dst);
+
+            assertEquals("a", Files.readString(dst.resolve("a.txt")));
+            assertFalse(Files.exists(dst.resolve(".git/objects/info/alternates")));
+        }
+
+        // the lock is released
+        assertNotNull(cache.update(uri, null));
+    }
+
+    private static RevCommit commit(Git git, String fileName, String content) throws Exception {
+        Files.writeString(git.getRepository().getWorkTree().toPath().resolve(fileName), content);
+        git.add().addFilepattern(fileName).call();
+        return git.commit()
+                .setMessage("add " + fileName)
+                .setAuthor("test", "test@example.com")
+                .setCommitter("test", "test@example.com")
+                .setSign(false)
+                .call();
+    }
+}
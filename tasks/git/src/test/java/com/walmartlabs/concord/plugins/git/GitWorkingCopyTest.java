@@ -0,0 +1,188 @@
+package com.walmartlabs.concord.plugins.git;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2025 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.RefNotFoundException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GitWorkingCopyTest {
+
+    private static final GitCloneOptions OPTIONS = GitCloneOptions.builder().build();
+
+    @TempDir
+    Path tempDir;
+
+    private Path origin;
+    private String uri;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        origin = tempDir.resolve("origin");
+        uri = origin.toUri().toString();
+
+        try (Git git = Git.init().setDirectory(origin.toFile()).setInitialBranch("main").call()) {
+            commit(git, "a.txt", "v1");
+            git.branchCreate().setName("feature").call();
+        }
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        Path dst = tempDir.resolve("dst");
+        new JGitClient().cloneRepo(uri, "main", null, dst);
+
+        // local changes are discarded
+        Files.writeString(dst.resolve("a.txt"), "local");
+        Files.writeString(dst.resolve("untracked.txt"), "local");
+
+        ObjectId feature;
+        try (Git git = Git.open(origin.toFile())) {
+            commit(git, "a.txt", "v2");
+            git.checkout().setName("feature").call();
+            feature = commit(git, "b.txt", "feature");
+            git.checkout().setName("main").call();
+        }
+
+        assertEquals(GitWorkingCopy.State.CLONE, GitWorkingCopy.inspect(dst, uri + "/"));
+        GitWorkingCopy.update(dst, uri, "main", List.of("feature"), null, OPTIONS);
+
+        assertEquals("v2", Files.readString(dst.resolve("a.txt")));
+        assertFalse(Files.exists(dst.resolve("untracked.txt")));
+        try (Git git = Git.open(dst.toFile())) {
+            assertTrue(git.status().call().isClean());
+            assertEquals("main", git.getRepository().getBranch());
+            assertEquals(feature, git.getRepository().resolve(GitTask.REFS_REMOTES + "feature"));
+        }
+
+        // a branch without a local branch yet
+        GitWorkingCopy.update(dst, uri, "feature", List.of(), null, OPTIONS);
+        assertEquals("feature", Files.readString(dst.resolve("b.txt")));
+    }
+
+    @Test
+    public void testForeignDirectory() throws Exception {
+        Path dst = tempDir.resolve("dst");
+        assertEquals(GitWorkingCopy.State.EMPTY, GitWorkingCopy.inspect(dst, uri));
+
+        Files.createDirectories(dst);
+        Files.writeString(dst.resolve("state.json"), "{}");
+        assertThrows(IllegalStateException.class, () -> GitWorkingCopy.inspect(dst, uri));
+
+        Path other = tempDir.resolve("other");
+        new JGitClient().cloneRepo(uri, "main", null, other);
+        assertThrows(IllegalStateException.class, () -> GitWorkingCopy.inspect(other, "https://example.com/other.git"));
+        assertThrows(RefNotFoundException.class, () -> GitWorkingCopy.update(other, uri, "unknown", List.of(), null, OPTIONS));
+    }
+
+    @Test
+    public void testForeignDirectoryIsKept() throws Exception {
+        Path dst = tempDir.resolve("dst");
+        Files.createDirectories(dst);
+        Files.writeString(dst.resolve("state.json"), "{}");
+
+        Map<String, Object> in = Map.of(
+                "action", "createBranch",
+                "url", uri,
+                "baseBranch", "main",
+                "newBranch", "feature-2",
+                "workingDir", "dst",
+                "updateInPlace", true);
+
+        GitTask task = new GitTask(null, tempDir, false);
+        assertThrows(RuntimeException.class, () -> task.execute(in, Map.of()));
+
+        assertEquals("{}", Files.readString(dst.resolve("state.json")));
+    }
+
+    @Test
+    public void testSparseCloneIsUpdatedInPlace() throws Exception {
+        try (Git git = Git.open(origin.toFile())) {
+            commit(git, "src/s.txt", "src");
+            commit(git, "docs/d.txt", "docs");
+            git.checkout().setName("feature").call();
+            git.merge().include(git.getRepository().resolve("main")).call();
+            commit(git, "b.txt", "feature");
+            git.checkout().setName("main").call();
+        }
+
+        Map<String, Object> defaults = Map.of(
+                "url", uri,
+                "workingDir", "dst",
+                "sparsePaths", List.of("src"),
+                "updateInPlace", true);
+
+        GitTask task = new GitTask(null, tempDir, false);
+        assertEquals(true, task.execute(Map.of("action", "clone", "baseBranch", "main"), defaults).get(GitTask.OK_KEY));
+
+        // removed if the repository is cloned again
+        Path dst = tempDir.resolve("dst");
+        Path marker = dst.resolve(".git").resolve("marker");
+        Files.writeString(marker, "");
+
+        Map<String, Object> result = task.execute(Map.of(
+                "action", "createBranch",
+                "baseBranch", "main",
+                "newBranch", "feature-2"), defaults);
+        assertEquals(true, result.get(GitTask.OK_KEY));
+        assertTrue(Files.exists(marker));
+
+        result = task.execute(Map.of(
+                "action", "merge",
+                "sourceBranch", "main",
+                "destinationBranch", "feature"), defaults);
+        assertEquals(true, result.get(GitTask.OK_KEY));
+        assertTrue(Files.exists(marker));
+
+        assertEquals("feature", Files.readString(dst.resolve("b.txt")));
+        assertEquals("src", Files.readString(dst.resolve("src/s.txt")));
+        assertFalse(Files.exists(dst.resolve("docs")));
+        try (Git git = Git.open(dst.toFile())) {
+            assertEquals("feature", git.getRepository().getBranch());
+        }
+    }
+
+    private static ObjectId commit(Git git, String fileName, String content) throws Exception {
+        Files.createDirectories(git.getRepository().getWorkTree().toPath().resolve(fileName).getParent());
+        Files.writeString(git.getRepository().getWorkTree().toPath().resolve(fileName), content);
+        git.add().addFilepattern(fileName).call();
+        return git.commit()
+                .setMessage("update " + fileName)
+                .setAuthor("test", "test@example.com")
+                .setCommitter("test", "test@example.com")
+                .setSign(false)
+                .call()
+                .getId();
+    }
+}
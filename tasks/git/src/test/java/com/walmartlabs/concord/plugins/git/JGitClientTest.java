@@ -0,0 +1,142 @@
+package com.walmartlabs.concord.plugins.git;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2025 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JGitClientTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path origin;
+    private String uri;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        origin = tempDir.resolve("origin");
+        uri = origin.toUri().toString();
+
+        try (Git git = Git.init().setDirectory(origin.toFile()).setInitialBranch("main").call()) {
+            for (int i = 0; i < 5; i++) {
+                commit(git, "a.txt", "v" + i);
+            }
+        }
+    }
+
+    @Test
+    public void testShallowClone() throws Exception {
+        GitCloneOptions options = GitCloneOptions.from(Map.of("depth", 2));
+
+        Path dst = tempDir.resolve("dst");
+        new JGitClient(null, options).cloneRepo(uri, "main", null, dst);
+
+        assertEquals("v4", Files.readString(dst.resolve("a.txt")));
+        assertTrue(Files.exists(dst.resolve(".git/shallow")));
+        try (Git git = Git.open(dst.toFile())) {
+            int commits = 0;
+            for (RevCommit ignored : git.log().call()) {
+                commits++;
+            }
+            assertEquals(2, commits);
+        }
+    }
+
+    @Test
+    public void testSparseCheckout() throws Exception {
+        try (Git git = Git.open(origin.toFile())) {
+            commit(git, "deploy/app.yaml", "app");
+            commit(git, "docs/guide/index.md", "guide");
+            commit(git, "docs/README.md", "docs");
+            commit(git, "src/Main.java", "main");
+        }
+
+        GitCloneOptions options = GitCloneOptions.from(Map.of("sparsePaths", List.of("deploy", "/docs/guide/")));
+
+        Path dst = tempDir.resolve("dst");
+        new JGitClient(null, options).cloneRepo(uri, "main", null, dst);
+
+        try (Stream<Path> files = Files.walk(dst)) {
+            List<String> checkedOut = files.filter(Files::isRegularFile)
+                    .map(p -> dst.relativize(p).toString().replace('\\', '/'))
+                    .filter(p -> !p.startsWith(".git/"))
+                    .sorted()
+                    .toList();
+            assertEquals(List.of("a.txt", "deploy/app.yaml", "docs/README.md", "docs/guide/index.md"), checkedOut);
+        }
+
+        try (Git git = Git.open(dst.toFile())) {
+            assertTrue(git.status().call().isClean());
+
+            // the paths outside the cone are not staged as deleted
+            Files.writeString(dst.resolve("deploy/app.yaml"), "app v2");
+            WorkingTreeChanges.stage(git, List.of(), true);
+            org.eclipse.jgit.api.Status status = git.status().call();
+            assertEquals(Set.of("deploy/app.yaml"), status.getChanged());
+            assertTrue(status.getRemoved().isEmpty());
+        }
+
+        assertEquals(List.of("/*", "!/*/", "/docs/", "!/docs/*/", "/deploy/", "/docs/guide/"),
+                Files.readAllLines(dst.resolve(".git/info/sparse-checkout")));
+    }
+
+    @Test
+    public void testOptions() {
+        GitCloneOptions options = GitCloneOptions.from(Map.of("shallowSince", "2024-01-15", "filter", "blob:none"));
+        assertEquals(Instant.parse("2024-01-15T00:00:00Z"), options.shallowSince());
+        assertEquals("blob:none", options.filter());
+        assertTrue(options.isShallow());
+
+        assertThrows(IllegalArgumentException.class, () -> GitCloneOptions.from(Map.of("depth", 0)));
+        assertThrows(IllegalArgumentException.class, () -> GitCloneOptions.from(Map.of("filter", "sparse:oid=abc")));
+        assertThrows(IllegalArgumentException.class, () -> GitCloneOptions.from(Map.of("shallowSince", "yesterday")));
+        assertThrows(IllegalArgumentException.class, () -> GitCloneOptions.from(Map.of("sparsePaths", List.of("../etc"))));
+    }
+
+    private static void commit(Git git, String fileName, String content) throws Exception {
+        Path file = git.getRepository().getWorkTree().toPath().resolve(fileName);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+        git.add().addFilepattern(fileName).call();
+        git.commit()
+                .setMessage("update " + fileName)
+                .setAuthor("test", "test@example.com")
+                .setCommitter("test", "test@example.com")
+                .setSign(false)
+                .call();
+    }
+}
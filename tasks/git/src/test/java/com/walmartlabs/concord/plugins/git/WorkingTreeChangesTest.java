@@ -0,0 +1,107 @@
+package com.walmartlabs.concord.plugins.git;
+
+/*-
+ * *****
+ * Concord
+ * -----
+ * Copyright (C) 2017 - 2025 Walmart Inc., Concord Authors
+ * -----
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =====
+ */
+
+import org.eclipse.jgit.api.Git;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class WorkingTreeChangesTest {
+
+    @TempDir
+    Path workDir;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        try (Git git = Git.init().setDirectory(workDir.toFile()).setInitialBranch("main").call()) {
+            write("deploy/app.yaml", "v1");
+            write("deploy/old.yaml", "v1");
+            write("src/Main.java", "v1");
+            git.add().addFilepattern(".").call();
+            git.commit()
+                    .setMessage("initial")
+                    .setAuthor("test", "test@example.com")
+                    .setCommitter("test", "test@example.com")
+                    .setSign(false)
+                    .call();
+        }
+
+        write("deploy/app.yaml", "v2");
+        write("deploy/new.yaml", "v1");
+        Files.delete(workDir.resolve("deploy/old.yaml"));
+        write("src/Main.java", "v2");
+    }
+
+    @Test
+    public void testStageAll() throws Exception {
+        for (boolean incremental : new boolean[]{false, true}) {
+            try (Git git = Git.open(workDir.toFile())) {
+                git.reset().call();
+
+                WorkingTreeChanges.Result result = WorkingTreeChanges.stage(git, List.of(), incremental);
+                assertEquals(Set.of("deploy/app.yaml", "deploy/new.yaml", "deploy/old.yaml", "src/Main.java"), result.changes());
+
+                var status = git.status().call();
+                assertEquals(Set.of("deploy/new.yaml"), status.getAdded());
+                assertEquals(Set.of("deploy/app.yaml", "src/Main.java"), status.getChanged());
+                assertEquals(Set.of("deploy/old.yaml"), status.getRemoved());
+            }
+        }
+    }
+
+    @Test
+    public void testStagePaths() throws Exception {
+        for (boolean incremental : new boolean[]{false, true}) {
+            try (Git git = Git.open(workDir.toFile())) {
+                git.reset().call();
+
+                WorkingTreeChanges.Result result = WorkingTreeChanges.stage(git, WorkingTreeChanges.normalize(List.of("./deploy/")), incremental);
+                assertEquals(Set.of("deploy/app.yaml", "deploy/new.yaml", "deploy/old.yaml"), result.changes());
+
+                var status = git.status().call();
+                assertEquals(Set.of("src/Main.java"), status.getModified());
+                assertEquals(Set.of("deploy/app.yaml"), status.getChanged());
+            }
+        }
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals(List.of("deploy", "src/Main.java"), WorkingTreeChanges.normalize(List.of("/deploy/", "./src/Main.java")));
+        assertEquals(List.of(), WorkingTreeChanges.normalize(List.of("deploy", ".")));
+        assertThrows(IllegalArgumentException.class, () -> WorkingTreeChanges.normalize(List.of("../other")));
+    }
+
+    private void write(String path, String content) throws Exception {
+        Path p = workDir.resolve(path);
+        Files.createDirectories(p.getParent());
+        Files.writeString(p, content);
+    }
+}